@@ -0,0 +1,241 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Sends HTTP requests through a shared HttpClient (HTTP/2 where the server supports it, pooled connections
+// otherwise). Other URLs, like local mirrors, go to the fallback transport.
+public class HttpClientTransport implements Transport
+{
+	private final HttpClient client;
+	private final Duration readTimeout;
+	private final Transport fallback;
+	
+	public HttpClientTransport(int connectTimeout, int readTimeout, Transport fallback)
+	{
+		HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL);
+		if(connectTimeout > 0)
+			builder.connectTimeout(Duration.ofMillis(connectTimeout));
+		client = builder.build();
+		// HttpClient has no timeout between reads. The request timeout covers the wait for the response headers,
+		// and the body is read through a BodyStream that gives up when no bytes arrive for this long.
+		this.readTimeout = readTimeout > 0 ? Duration.ofMillis(readTimeout) : null;
+		this.fallback = fallback;
+	}
+	
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException
+	{
+		if(!url.getProtocol().equals("http") && !url.getProtocol().equals("https"))
+			return fallback.get(url, headers);
+		HttpRequest.Builder request;
+		try
+		{
+			request = HttpRequest.newBuilder(url.toURI()).GET();
+		}catch(URISyntaxException e)
+		{
+			throw new IOException("Invalid URL " + url, e);
+		}
+		if(readTimeout != null)
+			request.timeout(readTimeout);
+		headers.forEach(request::header);
+		try
+		{
+			return new ClientResponse(client.send(request.build(), BodyHandlers.ofPublisher()), readTimeout);
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while requesting " + url);
+		}
+	}
+	
+	private static class ClientResponse implements Response
+	{
+		private final HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+		private final BodyStream body;
+		
+		private ClientResponse(HttpResponse<Flow.Publisher<List<ByteBuffer>>> response, Duration readTimeout)
+		{
+			this.response = response;
+			body = new BodyStream(readTimeout);
+			response.body().subscribe(body);
+		}
+		
+		@Override
+		public int getStatus()
+		{
+			return response.statusCode();
+		}
+		
+		@Override
+		public String getHeader(String name)
+		{
+			return response.headers().firstValue(name).orElse(null);
+		}
+		
+		@Override
+		public long getContentLength()
+		{
+			return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		}
+		
+		@Override
+		public InputStream getBody()
+		{
+			return body;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			// Releases the connection (or the HTTP/2 stream) even if the body was not read
+			body.close();
+		}
+	}
+	
+	// Pulls the body from the client one batch of buffers at a time. A read waits at most readTimeout for the next
+	// batch, then cancels the body and fails with a SocketTimeoutException like URLConnection does.
+	private static class BodyStream extends InputStream implements Flow.Subscriber<List<ByteBuffer>>
+	{
+		// Marks the end of the body, compared by identity
+		private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<>());
+		
+		private final BlockingQueue<List<ByteBuffer>> queue = new LinkedBlockingQueue<>();
+		private final Duration readTimeout;
+		private volatile Flow.Subscription subscription;
+		private volatile Throwable failure;
+		private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+		private ByteBuffer buffer;
+		private boolean done;
+		private volatile boolean closed;
+		
+		private BodyStream(Duration readTimeout)
+		{
+			this.readTimeout = readTimeout;
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription)
+		{
+			this.subscription = subscription;
+			// Closed before the client got around to subscribing
+			if(closed)
+				subscription.cancel();
+			else
+				subscription.request(1);
+		}
+		
+		@Override
+		public void onNext(List<ByteBuffer> item)
+		{
+			queue.add(item);
+		}
+		
+		@Override
+		public void onError(Throwable throwable)
+		{
+			failure = throwable;
+			queue.add(END);
+		}
+		
+		@Override
+		public void onComplete()
+		{
+			queue.add(END);
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			ByteBuffer current = nextBuffer();
+			return current == null ? -1 : current.get() & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(len == 0)
+				return 0;
+			ByteBuffer current = nextBuffer();
+			if(current == null)
+				return -1;
+			int count = Math.min(len, current.remaining());
+			current.get(b, off, count);
+			return count;
+		}
+		
+		// Null at the end of the body
+		private ByteBuffer nextBuffer() throws IOException
+		{
+			while(buffer == null || !buffer.hasRemaining())
+			{
+				if(buffers.hasNext())
+				{
+					buffer = buffers.next();
+					continue;
+				}
+				if(closed)
+					throw new IOException("Stream closed");
+				if(done)
+					return null;
+				List<ByteBuffer> item;
+				try
+				{
+					item = readTimeout == null ? queue.take() : queue.poll(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+				}catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while reading the response body");
+				}
+				if(item == null)
+				{
+					close();
+					throw new SocketTimeoutException("Read timed out");
+				}
+				if(item == END)
+				{
+					done = true;
+					if(failure instanceof IOException)
+						throw (IOException)failure;
+					if(failure != null)
+						throw new IOException(failure);
+					return null;
+				}
+				buffers = item.iterator();
+				// Keeps one batch in flight while this one is read
+				subscription.request(1);
+			}
+			return buffer;
+		}
+		
+		@Override
+		public void close()
+		{
+			if(closed)
+				return;
+			closed = true;
+			if(!done && subscription != null)
+				subscription.cancel();
+		}
+	}
+}
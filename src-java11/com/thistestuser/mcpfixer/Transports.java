@@ -0,0 +1,19 @@
+package com.thistestuser.mcpfixer;
+
+// The Java 11+ version of Transports, loaded from META-INF/versions/11 of the jar. All HTTP downloads share one
+// HttpClient, which keeps connections alive and multiplexes requests to the same host over HTTP/2.
+public class Transports
+{
+	private Transports()
+	{
+	}
+	
+	// Timeouts are in milliseconds, 0 for none. -Dmcpfixer.urlconnection=true selects the Java 8 transport.
+	public static Transport create(int connectTimeout, int readTimeout)
+	{
+		Transport fallback = new UrlConnectionTransport(connectTimeout, readTimeout);
+		if(Boolean.getBoolean("mcpfixer.urlconnection"))
+			return fallback;
+		return new HttpClientTransport(connectTimeout, readTimeout, fallback);
+	}
+}
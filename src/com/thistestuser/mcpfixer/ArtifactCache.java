@@ -0,0 +1,210 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+public class ArtifactCache implements AutoCloseable
+{
+	// The read-only attribute is shared by all links on Windows and stops them from being deleted or replaced
+	private static final boolean IS_WINDOWS =
+		System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("windows");
+	
+	private final File root;
+	private final File objects;
+	private final File temp;
+	private final long maxSize;
+	private final long maxAge;
+	private RandomAccessFile lockFile;
+	private FileLock lock;
+	
+	// Entries are keyed by SHA-1 and only ever added by an atomic rename, so readers never see a partial file.
+	// Every process holds a shared lock on cache.lock while it runs, and eviction needs the exclusive lock.
+	// A maxSize (bytes) or maxAge (milliseconds) of 0 means no limit.
+	public ArtifactCache(File root, long maxSize, long maxAge)
+	{
+		this.root = root;
+		objects = new File(root, "objects");
+		temp = new File(root, "tmp");
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+	}
+	
+	public File getRoot()
+	{
+		return root;
+	}
+	
+	public static File getDefaultRoot()
+	{
+		return new File(System.getProperty("user.home"), ".mcpfixer/cache");
+	}
+	
+	public void open() throws IOException
+	{
+		FileUtils.forceMkdir(objects);
+		FileUtils.forceMkdir(temp);
+		lockFile = new RandomAccessFile(new File(root, "cache.lock"), "rw");
+		lock = lockFile.getChannel().lock(0, Long.MAX_VALUE, true);
+	}
+	
+	private File getEntry(String sha1)
+	{
+		sha1 = sha1.toLowerCase(Locale.ENGLISH);
+		return new File(objects, sha1.substring(0, 2) + File.separator + sha1);
+	}
+	
+	// Places the cached artifact at dest as a hard link, or a copy if linking is not possible. The entry is hashed
+	// first, so a damaged entry is never handed out (store replaces it once the artifact is downloaded again).
+	public boolean materialize(String sha1, long size, File dest) throws IOException
+	{
+		File entry = getEntry(sha1);
+		if(!Checksums.matches(entry, size, sha1))
+			return false;
+		
+		try
+		{
+			FileLinks.linkOrCopy(entry, dest);
+		}catch(IOException e)
+		{
+			// The entry may have been evicted by another process in the meantime
+			Files.deleteIfExists(dest.toPath());
+			return false;
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+	
+	// The file must already be verified against the hash. An existing entry is only reused if it still matches,
+	// as it may have been damaged through a workspace link, and the workspace file is only linked to a checked entry.
+	public void store(String sha1, File file) throws IOException
+	{
+		File entry = getEntry(sha1);
+		long size = file.length();
+		boolean verified = false;
+		if(!Checksums.matches(entry, size, sha1))
+		{
+			if(entry.exists())
+			{
+				System.out.println("Warning: Replacing damaged cache entry " + sha1);
+				entry.setWritable(true);
+				Files.deleteIfExists(entry.toPath());
+			}
+			FileUtils.forceMkdirParent(entry);
+			File part = File.createTempFile(sha1, ".part", temp);
+			try
+			{
+				Files.copy(file.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				// Writes through a link into the cache fail, so one workspace can not damage the others
+				if(!IS_WINDOWS)
+					part.setWritable(false, false);
+				try
+				{
+					Files.move(part.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					verified = true;
+				}catch(FileAlreadyExistsException e)
+				{
+					// Another process stored the same artifact first
+				}
+			}finally
+			{
+				Files.deleteIfExists(part.toPath());
+			}
+		}else
+			verified = true;
+		if(!verified && !Checksums.matches(entry, size, sha1))
+			return;
+		
+		// Replace the workspace copy with a link so the content is only stored once
+		File link = new File(file.getPath() + ".link");
+		try
+		{
+			Files.createLink(link.toPath(), entry.toPath());
+			Files.move(link.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException | UnsupportedOperationException e)
+		{
+			Files.deleteIfExists(link.toPath());
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if(lockFile == null)
+			return;
+		try
+		{
+			lock.release();
+			if(maxSize > 0 || maxAge > 0)
+			{
+				FileChannel channel = lockFile.getChannel();
+				FileLock exclusive = channel.tryLock();
+				if(exclusive == null)
+					System.out.println("Cache is in use by another process, skipping eviction");
+				else
+					try
+					{
+						evict();
+					}finally
+					{
+						exclusive.release();
+					}
+			}
+		}finally
+		{
+			lockFile.close();
+			lockFile = null;
+		}
+	}
+	
+	private void evict() throws IOException
+	{
+		List<File> entries = new ArrayList<>();
+		File[] buckets = objects.listFiles();
+		if(buckets != null)
+			for(File bucket : buckets)
+			{
+				File[] files = bucket.listFiles();
+				if(files != null)
+					for(File file : files)
+						entries.add(file);
+			}
+		// Least recently used first
+		entries.sort(Comparator.comparingLong(File::lastModified));
+		
+		long total = 0;
+		for(File entry : entries)
+			total += entry.length();
+		
+		long now = System.currentTimeMillis();
+		int removed = 0;
+		long freed = 0;
+		for(File entry : entries)
+		{
+			boolean expired = maxAge > 0 && now - entry.lastModified() > maxAge;
+			boolean oversized = maxSize > 0 && total > maxSize;
+			if(!expired && !oversized)
+				break;
+			long length = entry.length();
+			if(entry.delete())
+			{
+				total -= length;
+				freed += length;
+				removed++;
+			}
+		}
+		if(removed > 0)
+			System.out.println("Evicted " + removed + " cache entries (" + freed / 1024 / 1024 + " MB)");
+	}
+}
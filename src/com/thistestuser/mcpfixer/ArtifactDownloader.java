@@ -0,0 +1,301 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import com.thistestuser.mcpfixer.Transport.Response;
+
+public class ArtifactDownloader
+{
+	// How many times a dropped connection is resumed, as long as every attempt makes progress
+	private static final int MAX_RESUMES = 8;
+	private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+	private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+	
+	private final Transport transport;
+	private final int retries;
+	private final int hostConnections;
+	private final Map<String, Semaphore> hostSlots = new ConcurrentHashMap<>();
+	
+	// retries is how often a failed request is tried again and hostConnections is the number of requests allowed
+	// to run against the same host at once (0 for no limit)
+	public ArtifactDownloader(Transport transport, int retries, int hostConnections)
+	{
+		this.transport = transport;
+		this.retries = retries;
+		this.hostConnections = hostConnections;
+	}
+	
+	// Downloads into <file>.part, resuming a previous partial download with a Range request when the server
+	// supports it. The part file only replaces the destination after the size and hash have been checked.
+	// Returns how many times the transfer had to be resumed, retried or restarted.
+	public int download(URL url, File file, long size, String sha1) throws IOException
+	{
+		File part = new File(file.getPath() + ".part");
+		FileUtils.forceMkdirParent(part);
+		if(size >= 0 && part.length() > size)
+			Files.deleteIfExists(part.toPath());
+		boolean resumed = part.length() > 0;
+		
+		int resumes = 0;
+		int failures = 0;
+		while(size < 0 || part.length() < size)
+		{
+			long before = part.length();
+			try
+			{
+				transfer(url, part);
+				break;
+			}catch(IOException e)
+			{
+				// An attempt that got further than the last one is resumed right away, anything else backs off
+				if(part.length() > before && resumes < MAX_RESUMES)
+					resumes++;
+				else if(isTransient(e) && failures < retries)
+					backOff(++failures);
+				else
+					throw e;
+			}
+		}
+		
+		if(!Checksums.matches(part, size, sha1) && (size >= 0 || sha1 != null))
+		{
+			Files.deleteIfExists(part.toPath());
+			// A leftover part file may belong to an older artifact, so try once more from scratch
+			if(resumed)
+				return download(url, file, size, sha1) + resumes + failures + 1;
+			throw new IOException("Checksum mismatch for " + url);
+		}
+		moveAtomically(part, file);
+		return resumes + failures;
+	}
+	
+	// Revalidates a cached file with the ETag and Last-Modified headers from the last download, which are kept
+	// next to it in <file>.meta. Returns false if the server reported the cached file as unchanged.
+	public boolean downloadIfModified(URL url, File file) throws IOException
+	{
+		for(int failures = 0;; )
+			try
+			{
+				Semaphore slot = acquireSlot(url);
+				try
+				{
+					return fetchIfModified(url, file);
+				}finally
+				{
+					if(slot != null)
+						slot.release();
+				}
+			}catch(IOException e)
+			{
+				if(!isTransient(e) || failures >= retries)
+					throw e;
+				backOff(++failures);
+			}
+	}
+	
+	private boolean fetchIfModified(URL url, File file) throws IOException
+	{
+		File metaFile = new File(file.getPath() + ".meta");
+		Properties meta = new Properties();
+		if(file.isFile() && metaFile.isFile())
+			try(Reader reader = Files.newBufferedReader(metaFile.toPath()))
+			{
+				meta.load(reader);
+			}
+		
+		Map<String, String> headers = new HashMap<>();
+		if(meta.containsKey("etag"))
+			headers.put("If-None-Match", meta.getProperty("etag"));
+		if(meta.containsKey("last-modified"))
+			headers.put("If-Modified-Since", meta.getProperty("last-modified"));
+		String etag;
+		String lastModified;
+		try(Response response = transport.get(url, headers))
+		{
+			if(response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return false;
+			if(response.getStatus() != HttpURLConnection.HTTP_OK)
+				throw new HttpStatusException(response.getStatus(), url);
+			etag = response.getHeader("ETag");
+			lastModified = response.getHeader("Last-Modified");
+			
+			// Several runs may share the file, so each one writes its own temporary copy
+			FileUtils.forceMkdirParent(file);
+			File temp = File.createTempFile(file.getName(), ".part", file.getParentFile());
+			try
+			{
+				Files.copy(response.getBody(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				long expected = response.getContentLength();
+				if(expected >= 0 && temp.length() != expected)
+					throw new IOException("Connection closed after " + temp.length() + " of " + expected + " bytes for " + url);
+				moveAtomically(temp, file);
+			}finally
+			{
+				Files.deleteIfExists(temp.toPath());
+			}
+		}
+		
+		meta.clear();
+		if(etag != null)
+			meta.setProperty("etag", etag);
+		if(lastModified != null)
+			meta.setProperty("last-modified", lastModified);
+		try(Writer writer = Files.newBufferedWriter(metaFile.toPath()))
+		{
+			meta.store(writer, null);
+		}
+		return true;
+	}
+	
+	private void moveAtomically(File from, File to) throws IOException
+	{
+		try
+		{
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	// Null if the number of connections to the host is not limited
+	private Semaphore acquireSlot(URL url) throws IOException
+	{
+		if(hostConnections <= 0 || url.getHost() == null || url.getHost().isEmpty())
+			return null;
+		Semaphore slot = hostSlots.computeIfAbsent(url.getHost(), host -> new Semaphore(hostConnections));
+		try
+		{
+			slot.acquire();
+		}catch(InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+		}
+		return slot;
+	}
+	
+	// Missing files and client errors will not go away by trying again
+	private static boolean isTransient(IOException e)
+	{
+		if(e instanceof HttpStatusException)
+		{
+			int code = ((HttpStatusException)e).code;
+			return code >= 500 || code == 408 || code == 429;
+		}
+		if(e instanceof SocketTimeoutException)
+			return true;
+		return !(e instanceof FileNotFoundException) && !(e instanceof InterruptedIOException);
+	}
+	
+	// Exponential backoff with jitter, so that parallel transfers failing together do not retry in lockstep
+	private static void backOff(int failures) throws IOException
+	{
+		long delay = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures - 1, 16));
+		try
+		{
+			Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+		}catch(InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while waiting to retry");
+		}
+	}
+	
+	private void transfer(URL url, File part) throws IOException
+	{
+		Semaphore slot = acquireSlot(url);
+		try
+		{
+			// The part file does not fit the artifact anymore, start over
+			while(transferRange(url, part))
+				Files.delete(part.toPath());
+		}finally
+		{
+			if(slot != null)
+				slot.release();
+		}
+	}
+	
+	// Returns true if the server rejected the range of the part file, which then has to be downloaded again
+	private boolean transferRange(URL url, File part) throws IOException
+	{
+		long offset = part.length();
+		Map<String, String> headers = new HashMap<>();
+		if(offset > 0)
+			headers.put("Range", "bytes=" + offset + "-");
+		try(Response response = transport.get(url, headers))
+		{
+			int code = response.getStatus();
+			if(code == HttpURLConnection.HTTP_PARTIAL)
+			{
+				String range = response.getHeader("Content-Range");
+				if(range == null || !range.startsWith("bytes " + offset + "-"))
+					throw new IOException("Unexpected Content-Range " + range + " for " + url);
+			}else if(code == 416 && offset > 0)
+				return true;
+			else if(code == HttpURLConnection.HTTP_OK)
+				offset = 0;
+			else
+				throw new HttpStatusException(code, url);
+			
+			long expected = response.getContentLength();
+			long received = 0;
+			try(OutputStream out = new FileOutputStream(part, offset > 0))
+			{
+				InputStream in = response.getBody();
+				byte[] buffer = new byte[65536];
+				int len;
+				while((len = in.read(buffer)) > 0)
+				{
+					out.write(buffer, 0, len);
+					received += len;
+				}
+			}
+			if(expected >= 0 && received != expected)
+				throw new IOException("Connection closed after " + received + " of " + expected + " bytes for " + url);
+		}
+		return false;
+	}
+	
+	private static class HttpStatusException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final int code;
+		
+		private HttpStatusException(int code, URL url)
+		{
+			super("Server returned HTTP " + code + " for " + url);
+			this.code = code;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return getMessage();
+		}
+	}
+}
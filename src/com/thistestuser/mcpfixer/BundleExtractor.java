@@ -0,0 +1,236 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+
+// Extracts entries from the 1.18+ bundled server jar. The central directory is read directly so that stored
+// entries (the nested jars) can be copied channel to channel without going through an inflater.
+public class BundleExtractor implements Closeable
+{
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+	private static final int LOCAL_HEADER = 0x04034b50;
+	
+	private final FileChannel channel;
+	private final ZipFile zip;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	
+	public BundleExtractor(File jar) throws IOException
+	{
+		channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ);
+		try
+		{
+			zip = new ZipFile(jar);
+			readCentralDirectory();
+		}catch(IOException e)
+		{
+			close();
+			throw e;
+		}
+	}
+	
+	private void readCentralDirectory() throws IOException
+	{
+		// The end record is at most 64k (comment) + 22 bytes from the end
+		long size = channel.size();
+		int tail = (int)Math.min(size, 65535 + 22);
+		ByteBuffer buffer = read(size - tail, tail);
+		int end = -1;
+		for(int i = tail - 22; i >= 0; i--)
+			if(buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY)
+			{
+				end = i;
+				break;
+			}
+		if(end == -1)
+			throw new IOException("Not a zip file");
+		long directorySize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if(directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL)
+			// Zip64, leave everything to ZipFile
+			return;
+		
+		ByteBuffer directory = read(directoryOffset, (int)directorySize);
+		while(directory.remaining() >= 46 && directory.getInt(directory.position()) == CENTRAL_DIRECTORY_ENTRY)
+		{
+			int start = directory.position();
+			int method = directory.getShort(start + 10) & 0xFFFF;
+			long compressedSize = directory.getInt(start + 20) & 0xFFFFFFFFL;
+			long uncompressedSize = directory.getInt(start + 24) & 0xFFFFFFFFL;
+			int nameLength = directory.getShort(start + 28) & 0xFFFF;
+			int extraLength = directory.getShort(start + 30) & 0xFFFF;
+			int commentLength = directory.getShort(start + 32) & 0xFFFF;
+			long headerOffset = directory.getInt(start + 42) & 0xFFFFFFFFL;
+			byte[] name = new byte[nameLength];
+			directory.position(start + 46);
+			directory.get(name);
+			directory.position(start + 46 + nameLength + extraLength + commentLength);
+			
+			boolean zip64 = compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL
+				|| headerOffset == 0xFFFFFFFFL;
+			// Only stored entries are copied directly, compressed ones go through ZipFile
+			if(method == ZipEntry.STORED && !zip64)
+				entries.put(new String(name, StandardCharsets.UTF_8), new Entry(headerOffset, uncompressedSize));
+		}
+	}
+	
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining())
+			if(channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of zip file");
+		buffer.flip();
+		return buffer;
+	}
+	
+	public boolean hasEntry(String name)
+	{
+		return zip.getEntry(name) != null;
+	}
+	
+	// Null if the bundle has no such entry. The size and CRC are -1 if the zip does not record them.
+	public ZipEntry getEntry(String name)
+	{
+		return zip.getEntry(name);
+	}
+	
+	public List<String> getEntries(String prefix)
+	{
+		List<String> names = new ArrayList<>();
+		zip.stream().filter(e -> !e.isDirectory() && e.getName().startsWith(prefix))
+			.forEach(e -> names.add(e.getName()));
+		return names;
+	}
+	
+	public void extract(String name, File dest) throws IOException
+	{
+		FileUtils.forceMkdirParent(dest);
+		// Replace rather than overwrite, the destination may be a hard link
+		Files.deleteIfExists(dest.toPath());
+		Entry entry = entries.get(name);
+		if(entry == null)
+		{
+			ZipEntry zipEntry = zip.getEntry(name);
+			if(zipEntry == null)
+				throw new IOException("Missing " + name + " in bundled jar");
+			try(InputStream in = zip.getInputStream(zipEntry))
+			{
+				Files.copy(in, dest.toPath());
+			}
+			return;
+		}
+		
+		ByteBuffer header = read(entry.headerOffset, 30);
+		if(header.getInt(0) != LOCAL_HEADER)
+			throw new IOException("Corrupt local header for " + name + " in bundled jar");
+		long dataOffset = entry.headerOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+		try(FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+		{
+			long done = 0;
+			while(done < entry.size)
+			{
+				long count = channel.transferTo(dataOffset + done, entry.size - done, out);
+				if(count <= 0)
+					throw new IOException("Unexpected end of zip file while extracting " + name);
+				done += count;
+			}
+		}
+	}
+	
+	// Extracts every entry under the prefix into destDir, spread over all cores. An entry that already exists at
+	// the same relative path in linkDir, with the same size and CRC, is hard linked from there (or copied if the
+	// filesystem can not link) instead of being written again. Returns how many entries were linked.
+	public int extractAll(String prefix, File destDir, File linkDir) throws IOException
+	{
+		List<Callable<Boolean>> tasks = new ArrayList<>();
+		for(String name : getEntries(prefix))
+			tasks.add(() -> {
+				String path = name.substring(prefix.length());
+				File dest = new File(destDir, path);
+				File existing = new File(linkDir, path);
+				if(isSame(name, existing))
+				{
+					FileLinks.linkOrCopy(existing, dest);
+					return true;
+				}
+				extract(name, dest);
+				return false;
+			});
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try
+		{
+			int linked = 0;
+			for(Future<Boolean> future : executor.invokeAll(tasks))
+				if(future.get())
+					linked++;
+			return linked;
+		}catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException("Unexpected error while extracting " + prefix, e.getCause());
+		}catch(InterruptedException e)
+		{
+			throw new IOException("Extraction was interrupted", e);
+		}finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	private boolean isSame(String name, File file) throws IOException
+	{
+		ZipEntry entry = zip.getEntry(name);
+		if(!file.isFile() || entry.getSize() != file.length() || entry.getCrc() == -1)
+			return false;
+		return Checksums.crc32(file) == entry.getCrc();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if(zip != null)
+				zip.close();
+		}finally
+		{
+			channel.close();
+		}
+	}
+	
+	private static class Entry
+	{
+		private final long headerOffset;
+		private final long size;
+		
+		private Entry(long headerOffset, long size)
+		{
+			this.headerOffset = headerOffset;
+			this.size = size;
+		}
+	}
+}
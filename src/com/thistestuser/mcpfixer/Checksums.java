@@ -0,0 +1,93 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+public class Checksums
+{
+	private static final long MAP_WINDOW = 256L * 1024 * 1024;
+	
+	private Checksums()
+	{
+	}
+	
+	// A negative size or null hash skips that part of the check, but at least one must be given
+	public static boolean matches(File file, long size, String sha1) throws IOException
+	{
+		if(!file.isFile() || size < 0 && sha1 == null)
+			return false;
+		if(size >= 0 && file.length() != size)
+			return false;
+		return sha1 == null || sha1.equalsIgnoreCase(sha1(file));
+	}
+	
+	public static String sha1(File file) throws IOException
+	{
+		MessageDigest digest = newDigest("SHA-1");
+		try(InputStream in = Files.newInputStream(file.toPath()))
+		{
+			byte[] buffer = new byte[65536];
+			int len;
+			while((len = in.read(buffer)) > 0)
+				digest.update(buffer, 0, len);
+		}
+		return toHex(digest.digest());
+	}
+	
+	// Hashes straight from a memory mapping instead of copying the file through a heap buffer. The mapping is
+	// only released by the GC, so on Windows the file can not be replaced for a while after this.
+	public static String sha1Mapped(File file) throws IOException
+	{
+		MessageDigest digest = newDigest("SHA-1");
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			for(long position = 0; position < size; position += MAP_WINDOW)
+				digest.update(channel.map(MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+		}
+		return toHex(digest.digest());
+	}
+	
+	public static long crc32(File file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		try(InputStream in = Files.newInputStream(file.toPath()))
+		{
+			byte[] buffer = new byte[65536];
+			int len;
+			while((len = in.read(buffer)) > 0)
+				crc.update(buffer, 0, len);
+		}
+		return crc.getValue();
+	}
+	
+	public static MessageDigest newDigest(String algorithm)
+	{
+		try
+		{
+			return MessageDigest.getInstance(algorithm);
+		}catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(algorithm + " is not available", e);
+		}
+	}
+	
+	public static String toHex(byte[] bytes)
+	{
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes)
+		{
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,84 @@
+package com.thistestuser.mcpfixer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraftforge.srgutils.IMappingFile;
+import net.minecraftforge.srgutils.IMappingFile.IClass;
+
+// Joins the client, server and srg mappings by official class name, so that csv mode looks up each class once
+public class ClassIndex
+{
+	private final Map<String, JoinedClass> classes = new HashMap<>();
+	private final List<JoinedClass> clientClasses = new ArrayList<>();
+	private final List<JoinedClass> serverClasses = new ArrayList<>();
+	
+	public ClassIndex(IMappingFile clientMapping, IMappingFile serverMapping, IMappingFile srg)
+	{
+		for(IClass cls : clientMapping.getClasses())
+		{
+			JoinedClass joined = classes.computeIfAbsent(cls.getOriginal(), name -> new JoinedClass());
+			joined.client = cls;
+			joined.clientSrg = srg.getClass(cls.getMapped());
+			clientClasses.add(joined);
+		}
+		for(IClass cls : serverMapping.getClasses())
+		{
+			JoinedClass joined = classes.computeIfAbsent(cls.getOriginal(), name -> new JoinedClass());
+			joined.server = cls;
+			joined.serverSrg = srg.getClass(cls.getMapped());
+			serverClasses.add(joined);
+		}
+	}
+	
+	// In the order of client.txt
+	public List<JoinedClass> getClientClasses()
+	{
+		return clientClasses;
+	}
+	
+	// In the order of server.txt
+	public List<JoinedClass> getServerClasses()
+	{
+		return serverClasses;
+	}
+	
+	public static class JoinedClass
+	{
+		private IClass client;
+		private IClass clientSrg;
+		private IClass server;
+		private IClass serverSrg;
+		
+		// Null if the class is server only
+		public IClass getClient()
+		{
+			return client;
+		}
+		
+		// Null if the class is client only
+		public IClass getServer()
+		{
+			return server;
+		}
+		
+		// The srg class for the obfuscated name on the given side, null if srg does not have it
+		public IClass getSrg(boolean server)
+		{
+			return server ? serverSrg : clientSrg;
+		}
+		
+		// The client class if there is one, otherwise the server class
+		public IClass getJoined()
+		{
+			return client != null ? client : server;
+		}
+		
+		public IClass getJoinedSrg()
+		{
+			return client != null ? clientSrg : serverSrg;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.thistestuser.mcpfixer;
+
+import java.nio.charset.StandardCharsets;
+
+// Encodes one javadoc line for a csv field in one pass: quotes are doubled, newlines become an escaped \n and
+// characters above ASCII become unicode escapes, so the result is plain ASCII bytes. Whether the field needs
+// quoting (it contains a comma) and a hash of the result are worked out on the way. The buffer is reused between
+// lines, so an instance must only be used by one thread.
+public class CsvEncoder
+{
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
+	private byte[] buffer = new byte[256];
+	private int length;
+	private boolean hasComma;
+	private int hash;
+	
+	public void encode(String line)
+	{
+		length = 0;
+		hasComma = false;
+		// At most 6 bytes per char
+		if(buffer.length < line.length() * 6)
+			buffer = new byte[line.length() * 6];
+		for(int i = 0; i < line.length(); i++)
+		{
+			char ch = line.charAt(i);
+			if(ch > 127)
+			{
+				buffer[length++] = '\\';
+				buffer[length++] = 'u';
+				buffer[length++] = HEX[ch >> 12];
+				buffer[length++] = HEX[ch >> 8 & 0xF];
+				buffer[length++] = HEX[ch >> 4 & 0xF];
+				buffer[length++] = HEX[ch & 0xF];
+			}else if(ch == '"')
+			{
+				buffer[length++] = '"';
+				buffer[length++] = '"';
+			}else if(ch == '\n')
+			{
+				buffer[length++] = '\\';
+				buffer[length++] = 'n';
+			}else
+			{
+				if(ch == ',')
+					hasComma = true;
+				buffer[length++] = (byte)ch;
+			}
+		}
+		hash = 1;
+		for(int i = 0; i < length; i++)
+			hash = 31 * hash + buffer[i];
+	}
+	
+	// Only the first getLength() bytes belong to the last line
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+	
+	public int getLength()
+	{
+		return length;
+	}
+	
+	public boolean hasComma()
+	{
+		return hasComma;
+	}
+	
+	public int getHash()
+	{
+		return hash;
+	}
+}
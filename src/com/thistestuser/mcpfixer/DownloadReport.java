@@ -0,0 +1,112 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+// Collects what happened to each artifact during a download run and writes it out as JSON
+public class DownloadReport
+{
+	public enum Status
+	{
+		SKIPPED,
+		CACHED,
+		// Fetched for another version in the same run
+		LINKED,
+		FETCHED,
+		FAILED
+	}
+	
+	private final long start = System.nanoTime();
+	private final List<Entry> entries = new ArrayList<>();
+	
+	public synchronized void add(String file, String url, Status status, long size, long nanos, int retries)
+	{
+		entries.add(new Entry(file, url, status, size, nanos, retries));
+	}
+	
+	public void write(File output) throws IOException
+	{
+		long wallNanos = System.nanoTime() - start;
+		List<Entry> sorted;
+		synchronized(this)
+		{
+			sorted = new ArrayList<>(entries);
+		}
+		sorted.sort(Comparator.comparing(e -> e.file));
+		
+		JsonArray artifacts = new JsonArray();
+		long[] counts = new long[Status.values().length];
+		long fetchedBytes = 0;
+		int retries = 0;
+		for(Entry entry : sorted)
+		{
+			JsonObject object = new JsonObject();
+			object.addProperty("file", entry.file);
+			object.addProperty("url", entry.url);
+			object.addProperty("status", entry.status.name().toLowerCase(Locale.ENGLISH));
+			object.addProperty("size", entry.size);
+			object.addProperty("millis", entry.nanos / 1000000);
+			object.addProperty("bytesPerSecond", bytesPerSecond(entry.status == Status.SKIPPED ? 0 : entry.size, entry.nanos));
+			object.addProperty("retries", entry.retries);
+			artifacts.add(object);
+			
+			counts[entry.status.ordinal()]++;
+			if(entry.status == Status.FETCHED)
+				fetchedBytes += entry.size;
+			retries += entry.retries;
+		}
+		
+		JsonObject totals = new JsonObject();
+		totals.addProperty("artifacts", sorted.size());
+		for(Status status : Status.values())
+			totals.addProperty(status.name().toLowerCase(Locale.ENGLISH), counts[status.ordinal()]);
+		totals.addProperty("fetchedBytes", fetchedBytes);
+		totals.addProperty("retries", retries);
+		totals.addProperty("wallMillis", wallNanos / 1000000);
+		totals.addProperty("bytesPerSecond", bytesPerSecond(fetchedBytes, wallNanos));
+		
+		JsonObject report = new JsonObject();
+		report.add("totals", totals);
+		report.add("artifacts", artifacts);
+		try(Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8))
+		{
+			new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+		}
+	}
+	
+	private static long bytesPerSecond(long bytes, long nanos)
+	{
+		return nanos <= 0 ? 0 : (long)(bytes * 1e9 / nanos);
+	}
+	
+	private static class Entry
+	{
+		private final String file;
+		private final String url;
+		private final Status status;
+		private final long size;
+		private final long nanos;
+		private final int retries;
+		
+		private Entry(String file, String url, Status status, long size, long nanos, int retries)
+		{
+			this.file = file;
+			this.url = url;
+			this.status = status;
+			this.size = size;
+			this.nanos = nanos;
+			this.retries = retries;
+		}
+	}
+}
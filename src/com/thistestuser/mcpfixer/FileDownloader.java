@@ -3,212 +3,545 @@ package com.thistestuser.mcpfixer;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.Locale;
-import java.util.Objects;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.thistestuser.mcpfixer.DownloadReport.Status;
+import com.thistestuser.mcpfixer.VersionJson.Artifact;
+import com.thistestuser.mcpfixer.VersionJson.Library;
 
 public class FileDownloader
 {
-	private final String version;
+	public static final String MANIFEST_URL = "https://piston-meta.mojang.com/mc/game/version_manifest_v2.json";
+	
+	private final String versions;
 	private final File mcpFolder;
+	private final int threads;
+	private final ArtifactCache cache;
+	private final UrlRewriter mirrors;
+	private final ArtifactDownloader downloader;
+	private final DownloadReport report = new DownloadReport();
+	private boolean forceExtraction;
 	
-	public FileDownloader(String version, File mcpFolder)
+	// versions is a single version, a list like "1.16.5,1.18.2" or a range like "1.16.5..1.21"
+	public FileDownloader(String versions, File mcpFolder, int threads, ArtifactCache cache, UrlRewriter mirrors,
+		ArtifactDownloader downloader)
 	{
-		this.version = version;
+		this.versions = versions;
 		this.mcpFolder = mcpFolder;
+		this.threads = threads;
+		this.cache = cache;
+		this.mirrors = mirrors;
+		this.downloader = downloader;
+	}
+	
+	// Makes the next run extract up to date 1.18+ server bundles again, for when the files extracted from them are
+	// broken
+	public void forceExtraction()
+	{
+		forceExtraction = true;
 	}
 	
 	public int run() throws IOException
 	{
-		System.out.println("Downloading version manifest");
-		URL manifestURL = new URL("https://piston-meta.mojang.com/mc/game/version_manifest_v2.json");
-		File manifest = new File(mcpFolder, "jars/version_manifest_v2.json");
-		FileUtils.copyURLToFile(manifestURL, manifest);
-		if(!manifest.exists())
+		if(cache == null)
+			return download();
+		cache.open();
+		try
 		{
-			System.out.println("Unable to download version manifest");
-			return 4;
+			return download();
+		}finally
+		{
+			cache.close();
 		}
-		return downloadJson(manifest, version, mcpFolder);
 	}
 	
-	private JsonObject getJsonAsObject(File json) throws IOException
+	private int download() throws IOException
 	{
-		Reader reader = Files.newBufferedReader(json.toPath());
-		JsonElement element = JsonParser.parseReader(reader);
-		return element.getAsJsonObject();
+		System.out.println("Checking version manifest");
+		URL manifestURL = mirrors.toURL(MANIFEST_URL);
+		// The manifest is kept between runs, in the shared cache if there is one
+		File manifest = new File(cache != null ? cache.getRoot() : new File(mcpFolder, "jars"), "version_manifest_v2.json");
+		try
+		{
+			if(downloader.downloadIfModified(manifestURL, manifest))
+				System.out.println("Downloaded version manifest");
+			else
+				System.out.println("Version manifest is up to date");
+		}catch(IOException e)
+		{
+			if(!manifest.exists())
+				throw e;
+			System.out.println("Warning: Unable to check version manifest (" + e.getMessage() + "), using cached copy");
+		}
+		if(!manifest.exists())
+		{
+			System.out.println("Unable to download version manifest");
+			return 4;
+		}
+		
+		List<JsonObject> versionEntries = resolveVersions(manifest, versions);
+		if(versionEntries == null)
+			return 4;
+		// A single version is set up in the mcp folder itself, several versions each get a subfolder
+		boolean batch = versionEntries.size() > 1;
+		List<Workspace> workspaces = new ArrayList<>();
+		for(JsonObject versionEntry : versionEntries)
+		{
+			String version = versionEntry.get("id").getAsString();
+			workspaces.add(new Workspace(version, batch ? new File(mcpFolder, version) : mcpFolder, versionEntry, batch));
+		}
+		if(batch)
+			System.out.println("Setting up " + workspaces.size() + " versions: "
+				+ workspaces.stream().map(w -> w.version).collect(Collectors.joining(", ")));
+		
+		List<String> failed = downloadAll(workspaces);
+		
+		File reportFile = new File(mcpFolder, batch ? "download_report.json" : "jars/download_report.json");
+		report.write(reportFile);
+		System.out.println("Wrote download report to " + reportFile);
+		if(!failed.isEmpty())
+		{
+			System.out.println("Failed to download " + failed.size() + " artifact(s):");
+			for(String failure : failed)
+				System.out.println("  " + failure);
+			return 4;
+		}
+		System.out.println("Done");
+		return 0;
 	}
 	
-	private int downloadJson(File manifest, String version, File mcpFolder)
-		throws IOException
+	// Resolves the version list against the manifest in one pass, which stops as soon as every named version
+	// was seen. A range "a..b" includes both ends and every release in between, oldest first. Returns null if
+	// a version is missing.
+	private List<JsonObject> resolveVersions(File manifest, String spec) throws IOException
 	{
-		JsonObject manifestObject = getJsonAsObject(manifest);
-		JsonArray versions = manifestObject.getAsJsonArray("versions");
-		System.out.println("Downloading version JSON");
-		for(int i = 0; i < versions.size(); i++)
+		List<String[]> parts = new ArrayList<>();
+		Set<String> wanted = new HashSet<>();
+		boolean hasRange = false;
+		for(String part : spec.split(","))
 		{
-			JsonElement id = versions.get(i).getAsJsonObject().get("id");
-			
-			if(id.getAsString().equals(version))
+			part = part.trim();
+			if(part.isEmpty())
+				continue;
+			String[] range = part.split("\\.\\.", -1);
+			if(range.length > 2 || range[0].trim().isEmpty() || range[range.length - 1].trim().isEmpty())
 			{
-				URL url = new URL(
-					versions.get(i).getAsJsonObject().get("url").getAsString());
-				File versionJson = new File(mcpFolder,
-					"jars/versions/" + version + "/" + version + ".json");
-				FileUtils.copyURLToFile(url, versionJson);
-				
-				downloadSide(versionJson, mcpFolder, "client", version);
-				downloadSide(versionJson, mcpFolder, "server", version);
-				parseJson(version, versionJson, mcpFolder);
-				
-				System.out.println("Deleting version manifest");
-				FileUtils.deleteQuietly(manifest);
-				System.out.println("Done");
-				return 0;
+				System.out.println("Warning: Invalid version range " + part);
+				return null;
+			}
+			for(int i = 0; i < range.length; i++)
+			{
+				range[i] = range[i].trim();
+				wanted.add(range[i]);
+			}
+			hasRange |= range.length == 2;
+			parts.add(range);
+		}
+		if(parts.isEmpty())
+		{
+			System.out.println("Warning: No version specified");
+			return null;
+		}
+		
+		// Every entry up to the last one needed is kept for ranges, in manifest order (newest first)
+		List<JsonObject> seen = hasRange ? new ArrayList<>() : null;
+		Map<String, JsonObject> found = findVersions(manifest, wanted, seen);
+		Map<String, JsonObject> resolved = new LinkedHashMap<>();
+		for(String[] part : parts)
+		{
+			for(String version : part)
+				if(!found.containsKey(version))
+				{
+					System.out.println("Warning: The version " + version + " was not found in the manifest");
+					return null;
+				}
+			if(part.length == 1)
+			{
+				resolved.putIfAbsent(part[0], found.get(part[0]));
+				continue;
+			}
+			int first = seen.indexOf(found.get(part[0]));
+			int last = seen.indexOf(found.get(part[1]));
+			for(int i = Math.max(first, last); i >= Math.min(first, last); i--)
+			{
+				JsonObject entry = seen.get(i);
+				if(i == first || i == last || entry.has("type") && entry.get("type").getAsString().equals("release"))
+					resolved.putIfAbsent(entry.get("id").getAsString(), entry);
 			}
 		}
-		System.out.println("Warning: The version " + version + " was not found in the manifest");
-		return 4;
+		return new ArrayList<>(resolved.values());
 	}
 	
-	private void downloadSide(File json, File mcpFolder, String side,
-		String version) throws IOException
+	// Reads the manifest only up to the last requested version, without building the whole document
+	private Map<String, JsonObject> findVersions(File manifest, Set<String> wanted, List<JsonObject> seen)
+		throws IOException
 	{
-		JsonObject versionObject = getJsonAsObject(json);
-		JsonObject downloads = versionObject.getAsJsonObject("downloads");
-		JsonObject sideObject = downloads.getAsJsonObject(side);
-		URL url = new URL(sideObject.get("url").getAsString());
-		
-		System.out.println("Downloading " + side);
-		
-		switch(side)
-		{
-			case "client":
-				File clientJar = new File(mcpFolder, "jars/versions/" + version + File.separator + version + ".jar");
-				FileUtils.copyURLToFile(url, clientJar);
-				break;
-			case "server":
-				File serverJar = new File(mcpFolder, "jars/minecraft_server." + version + ".jar");
-				FileUtils.copyURLToFile(url, serverJar);
-				extractLibraries(version, serverJar);
-				break;
+		Map<String, JsonObject> found = new HashMap<>();
+		try(JsonReader reader = new JsonReader(Files.newBufferedReader(manifest.toPath())))
+		{
+			reader.beginObject();
+			while(reader.hasNext())
+			{
+				if(!reader.nextName().equals("versions"))
+				{
+					reader.skipValue();
+					continue;
+				}
+				reader.beginArray();
+				while(reader.hasNext())
+				{
+					JsonObject entry = new JsonObject();
+					reader.beginObject();
+					while(reader.hasNext())
+					{
+						String name = reader.nextName();
+						if(reader.peek() == JsonToken.STRING)
+							entry.addProperty(name, reader.nextString());
+						else
+							reader.skipValue();
+					}
+					reader.endObject();
+					if(!entry.has("id"))
+						continue;
+					if(seen != null)
+						seen.add(entry);
+					if(wanted.contains(entry.get("id").getAsString()))
+					{
+						found.put(entry.get("id").getAsString(), entry);
+						if(found.size() == wanted.size())
+							return found;
+					}
+				}
+				reader.endArray();
+			}
 		}
+		return found;
 	}
 	
-	private void parseJson(String version, File json, File mcpFolder)
+	// The version JSONs are fetched first since they list everything else. Then the clients, the servers and the
+	// libraries of all versions are fetched at the same time, largest first so that a big artifact does not end
+	// up alone at the tail of the run. Extracting a server bundle is disk and CPU work, so it runs on its own
+	// thread instead of taking a download slot. Once the server is downloaded, its extraction waits for the
+	// library downloads that are also bundled in it, since those copies are linked instead of written again.
+	private List<String> downloadAll(List<Workspace> workspaces)
 		throws IOException
 	{
-		JsonObject versionObject = getJsonAsObject(json);
-		JsonArray libraries = versionObject.getAsJsonArray("libraries");
-		
-		for(int i = 0; i < libraries.size(); i++)
+		ExecutorService network = Executors.newFixedThreadPool(threads);
+		ExecutorService disk = Executors.newSingleThreadExecutor();
+		List<String> failed = new ArrayList<>();
+		try
 		{
-			JsonObject entry = libraries.get(i).getAsJsonObject();
-			JsonObject downloads = entry.getAsJsonObject("downloads");
+			List<CompletableFuture<TaskResult>> jsons = new ArrayList<>();
+			for(Workspace workspace : workspaces)
+				jsons.add(submit(log -> downloadJson(workspace, log), network));
+			printResults(jsons, failed);
 			
-			if(entry.has("rules"))
+			List<ScheduledTask> tasks = new ArrayList<>();
+			Map<Workspace, Map<String, ScheduledTask>> libraryTasks = new HashMap<>();
+			for(Workspace workspace : workspaces)
 			{
-				JsonArray rules = entry.getAsJsonArray("rules");
+				if(workspace.versionInfo == null)
+					continue;
+				tasks.add(new ScheduledTask(sizeOf(workspace.versionInfo.getClient()),
+					log -> downloadClient(workspace, log), null));
 				
-				if(isAllowed(rules))
+				File serverJar = new File(workspace.folder, "jars/minecraft_server." + workspace.version + ".jar");
+				ScheduledTask serverTask = new ScheduledTask(sizeOf(workspace.versionInfo.getServer()),
+					log -> downloadServer(workspace, serverJar, log), log -> {
+						if(serverJar.exists())
+							extractLibraries(workspace, serverJar, log);
+					});
+				Map<String, ScheduledTask> libraries = new HashMap<>();
+				serverTask.waitFor = () -> bundledLibraries(serverJar, libraries);
+				tasks.add(serverTask);
+				libraryTasks.put(workspace, libraries);
+			}
+			
+			// Versions share most of their libraries, each one is only fetched once and then linked into the
+			// other workspaces
+			Map<String, Transfer> transfers = new LinkedHashMap<>();
+			for(Workspace workspace : workspaces)
+				for(Library library : workspace.versionInfo == null ? Collections.<Library>emptyList()
+					: workspace.versionInfo.getLibraries())
 				{
-					downloadLibrary(downloads, mcpFolder);
-					if(downloads.has("classifiers"))
-						downloadNative(version, downloads.getAsJsonObject("classifiers"), mcpFolder, entry.has("extract"));
+					if(library.getArtifact() != null)
+						addTransfer(transfers, new Target(workspace, library.getArtifact(), false, false));
+					if(library.getNatives() != null)
+						addTransfer(transfers, new Target(workspace, library.getNatives(), true, library.shouldExtract()));
 				}
-				continue;
+			for(Transfer transfer : transfers.values())
+			{
+				ScheduledTask task = new ScheduledTask(sizeOf(transfer.targets.get(0).artifact),
+					log -> downloadLibrary(transfer, log), null);
+				tasks.add(task);
+				for(Target target : transfer.targets)
+					if(!target.isNative)
+						libraryTasks.get(target.workspace).put(target.artifact.getPath(), task);
 			}
 			
-			if(downloads.has("classifiers"))
+			// The pool takes tasks in submission order, artifacts without a size go last
+			List<ScheduledTask> bySize = new ArrayList<>(tasks);
+			bySize.sort(Comparator.comparingLong((ScheduledTask task) -> task.size).reversed());
+			for(ScheduledTask task : bySize)
+				task.future = submit(task.task, network);
+			for(ScheduledTask task : tasks)
+				if(task.then != null)
+				{
+					// Every future is assigned by now, so waitFor can be asked as soon as the download is done
+					task.future = task.future.thenCompose(result -> result.failure != null
+						? CompletableFuture.completedFuture(result)
+						: CompletableFuture.allOf(task.waitFor.get().stream().map(other -> other.future)
+							.toArray(CompletableFuture<?>[]::new)).thenApply(done -> result))
+						.thenApplyAsync(result -> result.failure != null ? result : runTask(task.then, result), disk);
+				}
+			List<CompletableFuture<TaskResult>> results = new ArrayList<>();
+			for(ScheduledTask task : tasks)
+				results.add(task.future);
+			printResults(results, failed);
+		}catch(ExecutionException e)
+		{
+			throw new IOException("Unexpected error while downloading", e.getCause());
+		}catch(InterruptedException e)
+		{
+			throw new IOException("Download was interrupted", e);
+		}finally
+		{
+			network.shutdownNow();
+			disk.shutdownNow();
+		}
+		return failed;
+	}
+	
+	// Prints results in submission order so the output does not depend on scheduling
+	private void printResults(List<CompletableFuture<TaskResult>> results, List<String> failed)
+		throws InterruptedException, ExecutionException
+	{
+		for(CompletableFuture<TaskResult> future : results)
+		{
+			TaskResult result = future.get();
+			result.log.forEach(System.out::println);
+			if(result.failure != null)
+				failed.add(result.failure);
+		}
+	}
+	
+	private static long sizeOf(Artifact artifact)
+	{
+		return artifact == null ? -1 : artifact.getSize();
+	}
+	
+	private static void addTransfer(Map<String, Transfer> transfers, Target target)
+	{
+		Artifact artifact = target.artifact;
+		String key = artifact.getSha1() != null ? artifact.getSha1() : artifact.getUrl();
+		Transfer transfer = transfers.computeIfAbsent(key, k -> new Transfer());
+		for(Target other : transfer.targets)
+			if(other.file.equals(target.file))
 			{
-				downloadNative(version, downloads.getAsJsonObject("classifiers"), mcpFolder, entry.has("extract"));
-				continue;
+				// Listed twice by the same version
+				other.extract |= target.extract;
+				return;
 			}
-			downloadLibrary(downloads, mcpFolder);
+		transfer.targets.add(target);
+	}
+	
+	private CompletableFuture<TaskResult> submit(DownloadTask task, ExecutorService executor)
+	{
+		return CompletableFuture.supplyAsync(() -> runTask(task, new TaskResult()), executor);
+	}
+	
+	private TaskResult runTask(DownloadTask task, TaskResult result)
+	{
+		try
+		{
+			task.run(result.log);
+		}catch(IOException e)
+		{
+			result.failure = e.getMessage();
+			result.log.add("Warning: " + result.failure);
 		}
+		return result;
 	}
 	
-	private boolean isAllowed(JsonArray rules)
+	private void downloadJson(Workspace workspace, List<String> log)
+		throws IOException
 	{
-		String os = OS.getOS().name;
-		
-		for(int i = 0; i < rules.size(); i++)
+		String version = workspace.version;
+		File versionJson = new File(workspace.folder,
+			"jars/versions/" + version + "/" + version + ".json");
+		String sha1 = workspace.versionEntry.has("sha1") ? workspace.versionEntry.get("sha1").getAsString() : null;
+		try
 		{
-			JsonObject ruleEntry = rules.get(i).getAsJsonObject();
-			JsonElement action = ruleEntry.get("action");
-			
-			JsonObject osRule = ruleEntry.getAsJsonObject("os");
-			
-			if(Objects.equals(action.getAsString(), "disallow"))
-				if(ruleEntry.has("os"))
-				{
-					JsonElement name = osRule.get("name");
-					if(Objects.equals(name.getAsString(), os) || name.getAsString().contains("osx") && os.contains("mac"))
-						return false;
-					else
-						return true;
-				}else
-					continue;
+			fetch(mirrors.toURL(workspace.versionEntry.get("url").getAsString()), versionJson, -1, sha1,
+				workspace.label("version JSON"), log);
+			workspace.versionInfo = VersionJson.load(versionJson);
+		}catch(IOException e)
+		{
+			throw new IOException(workspace.label("Version JSON") + ": " + e, e);
+		}
+	}
+	
+	private void downloadClient(Workspace workspace, List<String> log)
+		throws IOException
+	{
+		Artifact artifact = workspace.versionInfo.getClient();
+		if(artifact == null)
+		{
+			log.add("Warning: The version JSON " + workspace.label("has no client download"));
+			return;
+		}
+		String version = workspace.version;
+		File clientJar = new File(workspace.folder, "jars/versions/" + version + File.separator + version + ".jar");
+		try
+		{
+			fetch(mirrors.toURL(artifact.getUrl()), clientJar, artifact.getSize(), artifact.getSha1(),
+				workspace.label("client"), log);
+		}catch(IOException e)
+		{
+			throw new IOException(workspace.label("Client") + ": " + e, e);
+		}
+	}
+	
+	private void downloadServer(Workspace workspace, File serverJar, List<String> log)
+		throws IOException
+	{
+		Artifact artifact = workspace.versionInfo.getServer();
+		if(artifact == null)
+		{
+			log.add("Warning: The version JSON " + workspace.label("has no server download"));
+			return;
+		}
+		// 1.18+ bundles are moved aside once the actual server jar is extracted
+		File bundledJar = new File(workspace.folder, "jars/minecraft_server." + workspace.version + "_bundled.jar");
+		long start = System.nanoTime();
+		if((serverJar.exists() || forceExtraction)
+			&& Checksums.matches(bundledJar, artifact.getSize(), artifact.getSha1()))
+		{
+			// Listed under the path it is downloaded to, like on the first run
+			String relative = mcpFolder.toURI().relativize(serverJar.toURI()).getPath();
+			report.add(relative, mirrors.rewrite(artifact.getUrl()), Status.SKIPPED, bundledJar.length(),
+				System.nanoTime() - start, 0);
+			if(!forceExtraction)
+			{
+				log.add("Skipping " + workspace.label("server") + " (up to date)");
+				return;
+			}
+			// Put the bundle back where a download leaves it, so that the extraction step runs on it again
+			log.add("Skipping " + workspace.label("server") + " (up to date), extracting it again");
+			Files.move(bundledJar.toPath(), serverJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return;
+		}
+		try
+		{
+			fetch(mirrors.toURL(artifact.getUrl()), serverJar, artifact.getSize(), artifact.getSha1(),
+				workspace.label("server"), log);
+		}catch(IOException e)
+		{
+			throw new IOException(workspace.label("Server") + ": " + e, e);
+		}
+	}
+	
+	// Fetches a library or native into the first workspace that needs it and links it into the others
+	private void downloadLibrary(Transfer transfer, List<String> log)
+		throws IOException
+	{
+		Target first = transfer.targets.get(0);
+		Artifact artifact = first.artifact;
+		try
+		{
+			fetch(mirrors.toURL(artifact.getUrl()), first.file, artifact.getSize(), artifact.getSha1(),
+				first.getName(), log);
+			for(Target target : transfer.targets.subList(1, transfer.targets.size()))
+				link(first.file, target, log);
 			
-			if(Objects.equals(action.getAsString(), "allow"))
-				if(ruleEntry.has("os"))
+			// < 1.19
+			for(Target target : transfer.targets)
+				if(target.extract)
 				{
-					JsonElement name = osRule.get("name");
-					if(Objects.equals(name.getAsString(), os) || name.getAsString().contains("osx") && os.contains("mac"))
-						return true;
+					log.add("Extracting " + target.getName());
+					extractNative(target.workspace.version, target.file, target.workspace.folder);
 				}
+		}catch(IOException e)
+		{
+			throw new IOException((first.isNative ? "Native " : "Library ") + artifact.getPath() + ": " + e, e);
 		}
-		return false;
 	}
 	
-	private void downloadLibrary(JsonObject downloads, File mcpFolder)
+	private void link(File source, Target target, List<String> log)
 		throws IOException
 	{
-		String path = downloads.getAsJsonObject("artifact").get("path").getAsString();
-		System.out.println("Downloading library " + path.substring(path.lastIndexOf('/') + 1));
-		
-		File file = new File(mcpFolder, "jars/libraries/" + path);
-		URL url = new URL(downloads.getAsJsonObject("artifact").get("url").getAsString());
-		FileUtils.copyURLToFile(url, file);
+		long start = System.nanoTime();
+		Artifact artifact = target.artifact;
+		String relative = mcpFolder.toURI().relativize(target.file.toURI()).getPath();
+		String url = mirrors.rewrite(artifact.getUrl());
+		if(Checksums.matches(target.file, artifact.getSize(), artifact.getSha1()))
+		{
+			log.add("Skipping " + target.getName() + " (up to date)");
+			report.add(relative, url, Status.SKIPPED, target.file.length(), System.nanoTime() - start, 0);
+			return;
+		}
+		FileLinks.linkOrCopy(source, target.file);
+		log.add("Linked " + target.getName());
+		report.add(relative, url, Status.LINKED, target.file.length(), System.nanoTime() - start, 0);
 	}
 	
-	// < 1.19
-	private void downloadNative(String version, JsonObject classifiers,
-		File mcpFolder, boolean extract) throws IOException
+	private void fetch(URL url, File file, long size, String sha1, String name, List<String> log)
+		throws IOException
 	{
-		String os = OS.getOS().name;
-		
-		if(classifiers.has("natives-" + os))
+		long start = System.nanoTime();
+		String relative = mcpFolder.toURI().relativize(file.toURI()).getPath();
+		if(Checksums.matches(file, size, sha1))
 		{
-			String path = classifiers.getAsJsonObject("natives-" + os).get("path").getAsString();
-			String url = classifiers.getAsJsonObject("natives-" + os).get("url").getAsString();
-			
-			System.out.println("Downloading native " + path.substring(path.lastIndexOf('/') + 1));
-			File nativeFile = new File(mcpFolder, "jars/libraries/" + path);
-			FileUtils.copyURLToFile(new URL(url), nativeFile);
-			
-			if(extract)
-			{
-				System.out.println("Extracting native " + path.substring(path.lastIndexOf('/') + 1));
-				extractNative(version, nativeFile, mcpFolder);
-			}
+			log.add("Skipping " + name + " (up to date)");
+			report.add(relative, url.toString(), Status.SKIPPED, file.length(), System.nanoTime() - start, 0);
+			return;
+		}
+		if(cache != null && sha1 != null && cache.materialize(sha1, size, file))
+		{
+			log.add("Linked " + name + " from cache");
+			report.add(relative, url.toString(), Status.CACHED, file.length(), System.nanoTime() - start, 0);
+			return;
 		}
+		log.add("Downloading " + name);
+		int retries;
+		try
+		{
+			retries = downloader.download(url, file, size, sha1);
+			if(cache != null && sha1 != null)
+				cache.store(sha1, file);
+		}catch(IOException e)
+		{
+			report.add(relative, url.toString(), Status.FAILED, size, System.nanoTime() - start, 0);
+			throw e;
+		}
+		report.add(relative, url.toString(), Status.FETCHED, file.length(), System.nanoTime() - start, retries);
 	}
 	
 	// < 1.19
@@ -250,74 +583,133 @@ public class FileDownloader
 		inputStream.close();
 	}
 	
-	private void extractLibraries(String version, File serverJar) throws IOException
+	private void extractLibraries(Workspace workspace, File serverJar, List<String> log) throws IOException
 	{
-		JarFile jar = new JarFile(serverJar);
-		JarEntry entry = jar.getJarEntry("META-INF/versions/" + version + "/server-" + version + ".jar");
-		if(entry == null)
+		String version = workspace.version;
+		File actualServerJar = new File(workspace.folder, "jars/server-" + version + ".jar");
+		try(BundleExtractor bundle = new BundleExtractor(serverJar))
 		{
-			jar.close();
-			return;
+			String entry = "META-INF/versions/" + version + "/server-" + version + ".jar";
+			if(!bundle.hasEntry(entry))
+				return;
+			log.add("Bundled server JAR (1.18+) detected. Extracting actual server jar and libraries"
+				+ workspace.label(""));
+			
+			// Extract the server jar
+			bundle.extract(entry, actualServerJar);
+			
+			// Extract server libraries, linking the ones that are identical to a downloaded library
+			int linked = bundle.extractAll("META-INF/libraries/", new File(workspace.folder, "jars/serverLibraries"),
+				new File(workspace.folder, "jars/libraries"));
+			if(linked > 0)
+				log.add("Linked " + linked + " server libraries to jars/libraries" + workspace.label(""));
 		}
-		System.out.println("Bundled server JAR (1.18+) detected. Extracting actual server jar and libraries");
 		
-		// Extract the server jar
-		File actualServerJar = new File(mcpFolder, "jars/server-" + version + ".jar");
-		FileUtils.copyInputStreamToFile(jar.getInputStream(entry), actualServerJar);
-		
-		// Extract server libraries
-		ZipEntry libEntry = jar.getEntry("META-INF/libraries/");
-		if(libEntry != null)
+		// Both files are in jars/, so these are renames and not copies
+		File bundledJar = new File(workspace.folder, "jars/minecraft_server." + version + "_bundled.jar");
+		Files.move(serverJar.toPath(), bundledJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(actualServerJar.toPath(), serverJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		log.add("Extracted libraries and server JAR from bundled JAR" + workspace.label(""));
+	}
+	
+	// The library downloads, by path, whose files are also under META-INF/libraries in the server jar. A server
+	// jar that is missing or can not be read has nothing to link, extraction reports the problem.
+	private static List<ScheduledTask> bundledLibraries(File serverJar, Map<String, ScheduledTask> libraries)
+	{
+		List<ScheduledTask> found = new ArrayList<>();
+		if(!serverJar.exists())
+			return found;
+		String prefix = "META-INF/libraries/";
+		try(ZipFile zip = new ZipFile(serverJar))
 		{
-			File serverLibraries = new File(mcpFolder, "jars/serverLibraries");
-			if(!serverLibraries.exists())
-				FileUtils.forceMkdir(serverLibraries);
-			
-			Enumeration<JarEntry> entries = jar.entries();
-			while(entries.hasMoreElements())
-			{
-				JarEntry e = entries.nextElement();
-				if(e.getName().startsWith("META-INF/libraries/") && !e.isDirectory())
-				{
-					File libFile = new File(mcpFolder,
-						"jars/serverLibraries/" + e.getName().substring("META-INF/libraries/".length()));
-					FileUtils.copyInputStreamToFile(jar.getInputStream(e), libFile);
-				}
-			}
+			zip.stream().filter(e -> !e.isDirectory() && e.getName().startsWith(prefix))
+				.map(e -> libraries.get(e.getName().substring(prefix.length())))
+				.filter(task -> task != null).forEach(found::add);
+		}catch(IOException e)
+		{
+			found.clear();
 		}
-		jar.close();
+		return found;
+	}
+	
+	private interface DownloadTask
+	{
+		void run(List<String> log) throws IOException;
+	}
+	
+	private static class TaskResult
+	{
+		private final List<String> log = new ArrayList<>();
+		private String failure;
+	}
+	
+	private static class ScheduledTask
+	{
+		private final long size;
+		private final DownloadTask task;
+		// Runs on the disk thread once the download succeeded and the waitFor tasks are done
+		private final DownloadTask then;
+		// Asked once the download succeeded
+		private Supplier<List<ScheduledTask>> waitFor = Collections::emptyList;
+		private CompletableFuture<TaskResult> future;
 		
-		File bundledJar = new File(mcpFolder, "jars/minecraft_server." + version + "_bundled.jar");
-		bundledJar.delete();
-		FileUtils.moveFile(serverJar, bundledJar);
-		FileUtils.moveFile(actualServerJar, serverJar);
-		System.out.println("Extracted libraries and server JAR from bundled JAR");
+		private ScheduledTask(long size, DownloadTask task, DownloadTask then)
+		{
+			this.size = size;
+			this.task = task;
+			this.then = then;
+		}
 	}
 	
-	//Derived from https://github.com/MinecraftForge/ForgeGradle/blob/FG_5.0/src/common/java/net/minecraftforge/gradle/common/util/VersionJson.java
-	private enum OS
+	private static class Workspace
 	{
-		WINDOWS("windows"),
-		MACOS("macos"),
-		LINUX("linux"),
-		UNKNOWN("unknown");
+		private final String version;
+		private final File folder;
+		private final JsonObject versionEntry;
+		private final String suffix;
+		private VersionJson versionInfo;
+		
+		private Workspace(String version, File folder, JsonObject versionEntry, boolean batch)
+		{
+			this.version = version;
+			this.folder = folder;
+			this.versionEntry = versionEntry;
+			suffix = batch ? " for " + version : "";
+		}
 		
-		private final String name;
+		// Names the version in messages when several versions are set up at once
+		private String label(String name)
+		{
+			return name + suffix;
+		}
+	}
+	
+	// A library or native needed by one or more workspaces, fetched once
+	private static class Transfer
+	{
+		private final List<Target> targets = new ArrayList<>();
+	}
+	
+	private static class Target
+	{
+		private final Workspace workspace;
+		private final Artifact artifact;
+		private final File file;
+		private final boolean isNative;
+		private boolean extract;
 		
-		OS(String name)
+		private Target(Workspace workspace, Artifact artifact, boolean isNative, boolean extract)
 		{
-			this.name = name;
+			this.workspace = workspace;
+			this.artifact = artifact;
+			this.isNative = isNative;
+			this.extract = extract;
+			file = new File(workspace.folder, "jars/libraries/" + artifact.getPath());
 		}
 		
-		public static OS getOS()
+		private String getName()
 		{
-			String property =
-				System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
-			
-			for(OS os : OS.values())
-				if(property.contains(os.name))
-					return os;
-			return UNKNOWN;
+			return workspace.label((isNative ? "native " : "library ") + artifact.getFileName());
 		}
 	}
 }
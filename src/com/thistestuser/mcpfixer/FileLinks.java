@@ -0,0 +1,33 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.io.FileUtils;
+
+public class FileLinks
+{
+	private FileLinks()
+	{
+	}
+	
+	// Places a hard link to source at dest, or a copy if linking is not possible (different filesystem, no
+	// support). Returns true if a link was made. An existing dest is replaced rather than written through, as it
+	// may itself be a link.
+	public static boolean linkOrCopy(File source, File dest) throws IOException
+	{
+		Files.deleteIfExists(dest.toPath());
+		FileUtils.forceMkdirParent(dest);
+		try
+		{
+			Files.createLink(dest.toPath(), source.toPath());
+			return true;
+		}catch(IOException | UnsupportedOperationException e)
+		{
+			Files.copy(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return false;
+		}
+	}
+}
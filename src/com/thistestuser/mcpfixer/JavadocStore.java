@@ -0,0 +1,271 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Maps SRG names to csv encoded javadocs. Parchment repeats a lot of lines (boilerplate @param text, the same
+// description on overloads), so every distinct encoded line is stored once as ASCII bytes and a javadoc is a run
+// of line ids. The bytes live in fixed size chunks, either on the heap or, when spilling, in a memory mapped temp
+// file. Like MemberTable, the entries are filled first and sorted by key on the first read, and if a key is added
+// twice the last javadoc wins.
+public class JavadocStore implements Closeable
+{
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	
+	private final CsvEncoder encoder = new CsvEncoder();
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private final File spillFile;
+	private final FileChannel spillChannel;
+	private long spillSize;
+	
+	// The distinct lines, with their chunk in the upper and offset in the lower half of the address
+	private long[] lineAddresses = new long[1024];
+	private int[] lineLengths = new int[1024];
+	private int[] lineHashes = new int[1024];
+	private boolean[] lineCommas = new boolean[1024];
+	private int lineCount;
+	// Open addressing table of line id + 1, 0 is empty
+	private int[] lineTable = new int[2048];
+	
+	// The line ids of every javadoc back to back
+	private int[] sequence = new int[4096];
+	private int sequenceSize;
+	private int docStart;
+	private boolean docHasComma;
+	
+	private String[] keys = new String[1024];
+	private int[] starts = new int[1024];
+	// The number of lines, shifted left once, with the lowest bit set if the javadoc needs quoting
+	private int[] infos = new int[1024];
+	private int size;
+	private boolean sorted = true;
+	
+	private char[] chars = new char[256];
+	
+	public JavadocStore(boolean spill) throws IOException
+	{
+		if(spill)
+		{
+			spillFile = File.createTempFile("mcpfixer-javadocs", ".bin");
+			spillFile.deleteOnExit();
+			spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}else
+		{
+			spillFile = null;
+			spillChannel = null;
+		}
+	}
+	
+	// Starts a new javadoc, dropping the lines of one that was started but not added
+	public void begin()
+	{
+		sequenceSize = docStart;
+		docHasComma = false;
+	}
+	
+	public void addLine(String line) throws IOException
+	{
+		encoder.encode(line);
+		int id = intern();
+		if(sequenceSize == sequence.length)
+			sequence = Arrays.copyOf(sequence, sequenceSize * 2);
+		sequence[sequenceSize++] = id;
+		docHasComma |= lineCommas[id];
+	}
+	
+	public boolean isEmpty()
+	{
+		return sequenceSize == docStart;
+	}
+	
+	// Adds the javadoc started with begin() under the key
+	public void put(String key)
+	{
+		if(size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, size * 2);
+			starts = Arrays.copyOf(starts, size * 2);
+			infos = Arrays.copyOf(infos, size * 2);
+		}
+		if(size > 0 && keys[size - 1].compareTo(key) >= 0)
+			sorted = false;
+		keys[size] = key;
+		starts[size] = docStart;
+		infos[size] = (sequenceSize - docStart) << 1 | (docHasComma ? 1 : 0);
+		size++;
+		docStart = sequenceSize;
+	}
+	
+	private int intern() throws IOException
+	{
+		byte[] bytes = encoder.getBuffer();
+		int length = encoder.getLength();
+		int hash = encoder.getHash();
+		int mask = lineTable.length - 1;
+		int slot = hash & mask;
+		while(lineTable[slot] != 0)
+		{
+			int id = lineTable[slot] - 1;
+			if(lineHashes[id] == hash && lineLengths[id] == length && sameBytes(id, bytes, length))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		
+		if(lineCount == lineAddresses.length)
+		{
+			lineAddresses = Arrays.copyOf(lineAddresses, lineCount * 2);
+			lineLengths = Arrays.copyOf(lineLengths, lineCount * 2);
+			lineHashes = Arrays.copyOf(lineHashes, lineCount * 2);
+			lineCommas = Arrays.copyOf(lineCommas, lineCount * 2);
+		}
+		int id = lineCount++;
+		lineAddresses[id] = store(bytes, length);
+		lineLengths[id] = length;
+		lineHashes[id] = hash;
+		lineCommas[id] = encoder.hasComma();
+		lineTable[slot] = id + 1;
+		// Keep the table at most half full
+		if(lineCount * 2 > lineTable.length)
+			rehash();
+		return id;
+	}
+	
+	private boolean sameBytes(int id, byte[] bytes, int length)
+	{
+		ByteBuffer chunk = chunks.get((int)(lineAddresses[id] >>> 32));
+		int offset = (int)lineAddresses[id];
+		for(int i = 0; i < length; i++)
+			if(chunk.get(offset + i) != bytes[i])
+				return false;
+		return true;
+	}
+	
+	private void rehash()
+	{
+		lineTable = new int[lineTable.length * 2];
+		int mask = lineTable.length - 1;
+		for(int id = 0; id < lineCount; id++)
+		{
+			int slot = lineHashes[id] & mask;
+			while(lineTable[slot] != 0)
+				slot = (slot + 1) & mask;
+			lineTable[slot] = id + 1;
+		}
+	}
+	
+	// Appends the bytes to the last chunk, starting a new one if they do not fit. A line longer than a chunk gets
+	// a chunk of its own.
+	private long store(byte[] bytes, int length) throws IOException
+	{
+		ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if(chunk == null || chunk.remaining() < length)
+		{
+			chunk = allocate(Math.max(CHUNK_SIZE, length));
+			chunks.add(chunk);
+		}
+		int offset = chunk.position();
+		chunk.put(bytes, 0, length);
+		return (long)(chunks.size() - 1) << 32 | offset;
+	}
+	
+	private ByteBuffer allocate(int capacity) throws IOException
+	{
+		if(spillChannel == null)
+			return ByteBuffer.allocate(capacity);
+		ByteBuffer chunk = spillChannel.map(MapMode.READ_WRITE, spillSize, capacity);
+		spillSize += capacity;
+		return chunk;
+	}
+	
+	public int size()
+	{
+		sort();
+		return size;
+	}
+	
+	// The position of the key, or a negative number if it is not in the store
+	public int indexOf(String key)
+	{
+		sort();
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+	
+	public String getKey(int index)
+	{
+		sort();
+		return keys[index];
+	}
+	
+	// Writes the csv field for the javadoc at the index, quoted if it contains a comma
+	public void write(int index, Writer writer) throws IOException
+	{
+		sort();
+		boolean quoted = (infos[index] & 1) != 0;
+		int lines = infos[index] >>> 1;
+		if(quoted)
+			writer.write('"');
+		for(int i = 0; i < lines; i++)
+		{
+			if(i > 0)
+				writer.write("\\n");
+			int id = sequence[starts[index] + i];
+			ByteBuffer chunk = chunks.get((int)(lineAddresses[id] >>> 32));
+			int offset = (int)lineAddresses[id];
+			int length = lineLengths[id];
+			if(chars.length < length)
+				chars = new char[length];
+			for(int j = 0; j < length; j++)
+				chars[j] = (char)chunk.get(offset + j);
+			writer.write(chars, 0, length);
+		}
+		if(quoted)
+			writer.write('"');
+	}
+	
+	private void sort()
+	{
+		if(sorted)
+			return;
+		int[] order = KeyOrder.of(keys, size);
+		size = order.length;
+		String[] sortedKeys = new String[Math.max(size, 1)];
+		int[] sortedStarts = new int[sortedKeys.length];
+		int[] sortedInfos = new int[sortedKeys.length];
+		for(int i = 0; i < size; i++)
+		{
+			sortedKeys[i] = keys[order[i]];
+			sortedStarts[i] = starts[order[i]];
+			sortedInfos[i] = infos[order[i]];
+		}
+		keys = sortedKeys;
+		starts = sortedStarts;
+		infos = sortedInfos;
+		sorted = true;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		chunks.clear();
+		if(spillChannel == null)
+			return;
+		spillChannel.close();
+		try
+		{
+			Files.deleteIfExists(spillFile.toPath());
+		}catch(IOException e)
+		{
+			// Still mapped on Windows, deleteOnExit gets another try
+		}
+	}
+}
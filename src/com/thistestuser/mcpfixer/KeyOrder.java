@@ -0,0 +1,46 @@
+package com.thistestuser.mcpfixer;
+
+import java.util.Arrays;
+
+// The sorted order of the keys of a table kept in parallel arrays, as the indices the entries came from. The
+// tables apply it to each of their arrays, so the sort itself is written once.
+public class KeyOrder
+{
+	// Returns the indices of the first size keys in key order. Of several entries for one key only the last one
+	// added is kept, so the result can be shorter than size.
+	public static int[] of(String[] keys, int size)
+	{
+		int[] order = new int[size];
+		for(int i = 0; i < size; i++)
+			order[i] = i;
+		mergeSort(keys, order);
+		
+		// Of several entries for one key, the stable sort left the last one added last
+		int count = 0;
+		for(int i = 0; i < size; i++)
+			if(i == size - 1 || !keys[order[i]].equals(keys[order[i + 1]]))
+				order[count++] = order[i];
+		return count == size ? order : Arrays.copyOf(order, count);
+	}
+	
+	// Bottom up merge sort of the indices by their keys
+	private static void mergeSort(String[] keys, int[] order)
+	{
+		int size = order.length;
+		int[] buffer = new int[size];
+		for(int width = 1; width < size; width *= 2)
+		{
+			for(int start = 0; start < size; start += width * 2)
+			{
+				int middle = Math.min(start + width, size);
+				int end = Math.min(start + width * 2, size);
+				int left = start;
+				int right = middle;
+				for(int i = start; i < end; i++)
+					buffer[i] = right >= end || left < middle && keys[order[left]].compareTo(keys[order[right]]) <= 0
+						? order[left++] : order[right++];
+			}
+			System.arraycopy(buffer, 0, order, 0, size);
+		}
+	}
+}
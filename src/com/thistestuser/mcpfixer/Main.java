@@ -2,10 +2,12 @@ package com.thistestuser.mcpfixer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
@@ -23,10 +25,27 @@ public class Main
 			"The input where files will be read (patch mode only)");
 		options.addOption("o", "output", true, "The output to place files (patch mode only)");
 		options.addOption("c", "conf", true, "The config folder in your mcp workspace (csv mode only)");
-		options.addOption("w", "mcp", true, "The directory of your mcp workspace (libraries, download, and adder mode only)");
-		options.addOption("v", "version", true, "The minecraft version of your mcp workspace (download mode only)");
+		options.addOption("w", "mcp", true, "The directory of your mcp workspace (libraries, download, verify, and adder mode only)");
+		options.addOption("v", "version", true, "The minecraft version of your mcp workspace (download and verify mode only)."
+			+ " In download mode, a list (1.16.5,1.18.2) or range of releases (1.16.5..1.21) sets up one workspace per"
+			+ " version in the mcp folder, verify those one at a time with -w pointing at the version's folder");
+		options.addOption("t", "threads", true,
+			"The number of files (version JSONs, clients, servers and libraries) to download at once (download mode only, default 1)");
+		options.addOption(Option.builder().longOpt("cache").hasArg().optionalArg(true)
+			.desc("Share downloaded artifacts through a cache, by default in ~/.mcpfixer/cache (download mode only)").build());
+		options.addOption(null, "cache-max-size", true, "Trim the cache to this many MB when done (download mode only)");
+		options.addOption(null, "cache-max-age", true, "Remove cache entries unused for this many days (download mode only)");
+		options.addOption(null, "mirrors", true,
+			"A file of \"<url prefix> <mirror url or directory>\" lines used to rewrite download URLs (download mode only)");
+		options.addOption(null, "retries", true, "How often a failed download is tried again (download mode only, default 4)");
+		options.addOption(null, "connect-timeout", true, "Connect timeout in seconds (download mode only, default 30)");
+		options.addOption(null, "read-timeout", true, "Read timeout in seconds (download mode only, default 60)");
+		options.addOption(null, "host-connections", true,
+			"The number of downloads from the same host at once, 0 for no limit (download mode only, default 6)");
+		options.addOption(null, "repair", false,
+			"Download missing and corrupt files again, takes the download mode options (verify mode only)");
 		options.addOption("j", "java", true, "The minimum Java version to run - only needed for snapshots (libraries mode only)");
-		options.addOption("m", "mode", true, "Either \"patch\", \"csv\", \"libraries\", \"download\", or \"adder\"");
+		options.addOption("m", "mode", true, "Either \"patch\", \"csv\", \"libraries\", \"download\", \"verify\", or \"adder\"");
 		
 		CommandLineParser cmdlineParser = new DefaultParser();
 		CommandLine cmdLine;
@@ -42,7 +61,7 @@ public class Main
 		
 		if(!cmdLine.hasOption("mode"))
 		{
-			System.out.println("No mode (patch, csv, libraries, download, or adder) specified");
+			System.out.println("No mode (patch, csv, libraries, download, verify, or adder) specified");
 			return 2;
 		}
 		
@@ -112,7 +131,7 @@ public class Main
 			}
 			return new ClasspathGenerator(mcpFolder, cmdLine.getOptionValue("java")).run();
 		}
-		if(mode.equalsIgnoreCase("download"))
+		if(mode.equalsIgnoreCase("download") || mode.equalsIgnoreCase("verify"))
 		{
 			if(!cmdLine.hasOption("mcp"))
 			{
@@ -133,7 +152,84 @@ public class Main
 				System.out.println("Invaild mcp location");
 				return 3;
 			}
-			return new FileDownloader(version, mcpFolder).run();
+			boolean verify = mode.equalsIgnoreCase("verify");
+			if(verify && (version.contains(",") || version.contains("..")))
+			{
+				System.out.println("Verify mode takes a single version, run it on the folder of each version instead");
+				return 3;
+			}
+			if(verify && !cmdLine.hasOption("repair"))
+				return new WorkspaceVerifier(version, mcpFolder, null).run();
+			
+			int threads = 1;
+			if(cmdLine.hasOption("threads"))
+				try
+				{
+					threads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+				}catch(NumberFormatException e)
+				{
+					threads = 0;
+				}
+			if(threads < 1)
+			{
+				System.out.println("Invalid thread count");
+				return 3;
+			}
+			ArtifactCache cache = null;
+			if(cmdLine.hasOption("cache"))
+			{
+				long maxSize;
+				long maxAge;
+				try
+				{
+					maxSize = Long.parseLong(cmdLine.getOptionValue("cache-max-size", "0")) * 1024 * 1024;
+					maxAge = TimeUnit.DAYS.toMillis(Long.parseLong(cmdLine.getOptionValue("cache-max-age", "0")));
+				}catch(NumberFormatException e)
+				{
+					System.out.println("Invalid cache limit");
+					return 3;
+				}
+				String cacheDir = cmdLine.getOptionValue("cache");
+				cache = new ArtifactCache(cacheDir == null ? ArtifactCache.getDefaultRoot() : new File(cacheDir),
+					maxSize, maxAge);
+			}
+			UrlRewriter mirrors = new UrlRewriter();
+			if(cmdLine.hasOption("mirrors"))
+			{
+				File mirrorConfig = new File(cmdLine.getOptionValue("mirrors"));
+				if(!mirrorConfig.exists())
+				{
+					System.out.println("Invaild mirrors location");
+					return 3;
+				}
+				mirrors = new UrlRewriter(mirrorConfig);
+			}
+			int retries;
+			int connectTimeout;
+			int readTimeout;
+			int hostConnections;
+			try
+			{
+				retries = Integer.parseInt(cmdLine.getOptionValue("retries", "4"));
+				connectTimeout = Integer.parseInt(cmdLine.getOptionValue("connect-timeout", "30")) * 1000;
+				readTimeout = Integer.parseInt(cmdLine.getOptionValue("read-timeout", "60")) * 1000;
+				hostConnections = Integer.parseInt(cmdLine.getOptionValue("host-connections", "6"));
+			}catch(NumberFormatException e)
+			{
+				retries = -1;
+				connectTimeout = readTimeout = hostConnections = 0;
+			}
+			if(retries < 0 || connectTimeout < 0 || readTimeout < 0 || hostConnections < 0)
+			{
+				System.out.println("Invalid retry or timeout setting");
+				return 3;
+			}
+			ArtifactDownloader downloader = new ArtifactDownloader(Transports.create(connectTimeout, readTimeout),
+				retries, hostConnections);
+			FileDownloader fileDownloader = new FileDownloader(version, mcpFolder, threads, cache, mirrors, downloader);
+			if(verify)
+				return new WorkspaceVerifier(version, mcpFolder, fileDownloader).run();
+			return fileDownloader.run();
 		}
 		if(mode.equalsIgnoreCase("adder"))
 		{
@@ -152,7 +248,7 @@ public class Main
 			}
 			return new LibraryAdder(mcpFolder).run();
 		}
-		System.out.println("Invalid mode (patch, csv, libraries, download, or adder) specified");
+		System.out.println("Invalid mode (patch, csv, libraries, download, verify, or adder) specified");
 		return 2;
 	}
 }
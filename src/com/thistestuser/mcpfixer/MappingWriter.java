@@ -1,34 +1,60 @@
 package com.thistestuser.mcpfixer;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.thistestuser.mcpfixer.ClassIndex.JoinedClass;
+import com.thistestuser.mcpfixer.ResolvedMappings.ResolvedClass;
+import com.thistestuser.mcpfixer.ResolvedMappings.ResolvedMethod;
 
 import net.minecraftforge.srgutils.IMappingFile;
 import net.minecraftforge.srgutils.IMappingFile.IClass;
 import net.minecraftforge.srgutils.IMappingFile.IField;
 import net.minecraftforge.srgutils.IMappingFile.IMethod;
-import net.minecraftforge.srgutils.IMappingFile.IParameter;
 
 public class MappingWriter
 {
+	// Raise whenever the csv output or the resolved mappings change, so that files written by an older MCPFixer
+	// are not skipped, patched or read back from the snapshot
+	private static final int OUTPUT_VERSION = 1;
+	
 	private final File confFolder;
 	private final File client;
 	private final File server;
 	private final File intermediateSrg;
+	// Binary copy of the resolved mappings, so they are only parsed again when one of the files changes
+	private final File snapshot;
+	private final File parchment;
+	private final File fieldsCsv;
+	private final File methodsCsv;
+	private final File paramsCsv;
+	// Hashes of the inputs and outputs of the last successful run
+	private final File manifest;
+	
+	// Reused for every method of the parchment pass
+	private int[] paramSlots = new int[16];
+	private String[] paramsBySlot = new String[32];
 	
 	public MappingWriter(File confFolder)
 	{
@@ -36,6 +62,12 @@ public class MappingWriter
 		client = new File(confFolder, "client.txt");
 		server = new File(confFolder, "server.txt");
 		intermediateSrg = new File(confFolder, "obf_to_intermediate.tsrg");
+		snapshot = new File(confFolder, "mappings.cache");
+		parchment = new File(confFolder, "parchment.json");
+		fieldsCsv = new File(confFolder, "fields.csv");
+		methodsCsv = new File(confFolder, "methods.csv");
+		paramsCsv = new File(confFolder, "params.csv");
+		manifest = new File(confFolder, "csv_manifest.json");
 	}
 	
 	public int run()
@@ -58,230 +90,78 @@ public class MappingWriter
 		}
 		try
 		{
-			System.out.println("Reading mappings");
-			IMappingFile clientMapping = IMappingFile.load(client);
-			IMappingFile serverMapping = IMappingFile.load(server);
-			IMappingFile srg = IMappingFile.load(intermediateSrg);
-			Map<String, String> clientFields = new TreeMap<>();
-			Map<String, String> clientMethods = new TreeMap<>();
-			Map<String, String> serverFields = new TreeMap<>();
-			Map<String, String> serverMethods = new TreeMap<>();
-			
-			addFieldsAndMethods(clientMapping, srg, clientFields, clientMethods);
-			addFieldsAndMethods(serverMapping, srg, serverFields, serverMethods);
-			
-			String[] header = new String[]{"searge", "name", "side", "desc"};
-			List<String[]> fields = new ArrayList<>();
-			List<String[]> methods = new ArrayList<>();
-			List<String[]> params = new ArrayList<>();
-			fields.add(header);
-			methods.add(header);
-			
-			Map<String, String> methodJavadocs = new TreeMap<>();
-			Map<String, String> fieldJavadocs = new TreeMap<>();
+			JsonObject inputs = hashFiles(client, server, intermediateSrg, parchment);
+			JsonObject previous = readManifest();
+			// Only trusted if nobody touched the csv files since they were written
+			boolean outputsUnchanged = previous != null
+				&& hashFiles(fieldsCsv, methodsCsv, paramsCsv).equals(previous.get("outputs"));
+			boolean mappingsUnchanged = outputsUnchanged && previous.get("inputs").isJsonObject()
+				&& sameHashes(inputs, previous.getAsJsonObject("inputs"), client, server, intermediateSrg);
+			if(mappingsUnchanged && sameHashes(inputs, previous.getAsJsonObject("inputs"), parchment))
+			{
+				System.out.println("Mappings and parchment.json are unchanged since the last run, skipping");
+				return 0;
+			}
+			// Only the desc column and params.csv depend on parchment.json, so the rest of the csv files is kept
+			boolean patch = mappingsUnchanged;
+			if(patch)
+				System.out.println("Only parchment.json changed, updating javadocs and params");
 			
-			File parchment = new File(confFolder, "parchment.json");
-			if(parchment.exists())
+			String key = OUTPUT_VERSION + ":" + inputs.get(client.getName()).getAsString() + inputs.get(server.getName()).getAsString()
+				+ inputs.get(intermediateSrg.getName()).getAsString();
+			ResolvedMappings mappings = loadMappings(key, !patch);
+			List<ParamRow> params = new ArrayList<>();
+			// Large exports keep their javadoc text in a temp file instead of the heap
+			boolean spill = Boolean.getBoolean("mcpfixer.spilljavadocs")
+				|| parchment.length() > Runtime.getRuntime().maxMemory() / 4;
+			try(JavadocStore fieldJavadocs = new JavadocStore(spill);
+				JavadocStore methodJavadocs = new JavadocStore(spill))
 			{
-				System.out.println("Found parchment.json, mapping params and adding javadocs");
-				
-				try
+				if(parchment.exists())
 				{
-					// Load file as JSON
-					Reader reader = Files.newBufferedReader(parchment.toPath());
-					JsonElement element = JsonParser.parseReader(reader);
+					System.out.println("Found parchment.json, mapping params and adding javadocs");
 					
-					JsonArray classes = element.getAsJsonObject().get("classes").getAsJsonArray();
-					for(JsonElement cls : classes)
+					try(JsonReader reader = new JsonReader(Files.newBufferedReader(parchment.toPath())))
 					{
-						JsonObject classObj = cls.getAsJsonObject();
-						
-						IClass clientClazz = clientMapping.getClass(classObj.get("name").getAsString());
-						IClass serverClazz = serverMapping.getClass(classObj.get("name").getAsString());
-						
-						if(clientClazz == null && serverClazz == null)
-						{
-							System.out.println("Warning: Could not find class " + classObj.get("name").getAsString());
-							continue;
-						}
-						
-						if(classObj.has("fields"))
-						{
-							JsonArray fieldsList = classObj.get("fields").getAsJsonArray();
-							for(JsonElement field : fieldsList)
-							{
-								IField clientField = clientClazz != null ?
-									clientClazz.getField(field.getAsJsonObject().get("name").getAsString()) : null;
-								IField serverField = serverClazz != null ?
-									serverClazz.getField(field.getAsJsonObject().get("name").getAsString()) : null;
-								
-								if(clientField == null && serverField == null)
-								{
-									System.out.println("Warning: Could not find field " + field.getAsJsonObject().get("name").getAsString()
-										+ " in class " + classObj.get("name").getAsString());
-									continue;
-								}
-								
-								IClass joinedClazz = clientClazz == null ? serverClazz : clientClazz;
-								IField joinedField = clientField == null ? serverField : clientField;
-								
-								// Add javadoc to field
-								JsonArray javadoc = field.getAsJsonObject().get("javadoc").getAsJsonArray();
-								javadoc.asList().stream().map(JsonElement::getAsString).reduce((a, b) -> a + "\n" + b).ifPresent(s -> {
-									IClass srgClazz = srg.getClass(joinedClazz.getMapped());
-									String name = srgClazz.remapField(joinedField.getMapped());
-									s = s.replace("\"", "\"\"").replace("\n", "\\n");
-									if(s.contains(","))
-										s = "\"" + s + "\"";
-									fieldJavadocs.put(name, s);
-								});
-							}
-						}
-						
-						if(classObj.has("methods"))
+						// Stream the export one class at a time instead of loading the whole file
+						reader.beginObject();
+						while(reader.hasNext())
 						{
-							JsonArray methodsList = classObj.get("methods").getAsJsonArray();
-							for(JsonElement method : methodsList)
+							if(!reader.nextName().equals("classes"))
 							{
-								IMethod clientMethod = clientClazz != null ?
-									clientClazz.getMethod(method.getAsJsonObject().get("name").getAsString(),
-										method.getAsJsonObject().get("descriptor").getAsString()) : null;
-								IMethod serverMethod = serverClazz != null ?
-									serverClazz.getMethod(method.getAsJsonObject().get("name").getAsString(),
-										method.getAsJsonObject().get("descriptor").getAsString()) : null;
-								
-								if(clientMethod == null && serverMethod == null)
-								{
-									System.out.println("Warning: Could not find method " + method.getAsJsonObject().get("name").getAsString()
-										+ method.getAsJsonObject().get("descriptor").getAsString()
-										+ " in class " + classObj.get("name").getAsString());
-									continue;
-								}
-								
-								IClass joinedClazz = clientClazz == null ? serverClazz : clientClazz;
-								IMethod joinedMethod = clientMethod == null ? serverMethod : clientMethod;
-								String side = serverMethod == null ? "0" : clientMethod == null ? "1" : "2";
-								List<String> javadocs = new ArrayList<>();
-								
-								// Append javadoc to method
-								if(method.getAsJsonObject().has("javadoc"))
-								{
-									JsonArray javadoc = method.getAsJsonObject().get("javadoc").getAsJsonArray();
-									javadoc.asList().stream().map(JsonElement::getAsString).forEach(javadocs::add);
-								}
-								
-								if(method.getAsJsonObject().has("parameters"))
-								{
-									// Get parameter list in srg mapping
-									IClass srgClazz = srg.getClass(joinedClazz.getMapped());
-									IMethod srgMethod = srgClazz.getMethod(joinedMethod.getMapped(), joinedMethod.getMappedDescriptor());
-									Collection<? extends IParameter> srgParams = srgMethod.getParameters();
-									
-									// Get JVM indexes of parameters
-									Map<Integer, Integer> paramIndexes =
-										getParamIndexes(joinedMethod.getMappedDescriptor(), srgMethod.getMetadata().containsKey("is_static"));
-									
-									JsonArray paramsList = method.getAsJsonObject().get("parameters").getAsJsonArray();
-									for(JsonElement paramMapping : paramsList)
-									{
-										IParameter param = srgParams.stream()
-											.filter(p -> paramIndexes.get(p.getIndex()) == paramMapping.getAsJsonObject().get("index").getAsInt())
-											.findFirst().orElse(null);
-										if(param == null)
-										{
-											System.out.println("Warning: Could not find parameter "
-												+ paramMapping.getAsJsonObject().get("index").getAsInt()
-												+ " in method " + method.getAsJsonObject().get("name").getAsString()
-												+ method.getAsJsonObject().get("descriptor").getAsString()
-												+ " in class " + classObj.get("name").getAsString());
-											continue;
-										}
-										
-										// Add parameter mapping
-										if(paramMapping.getAsJsonObject().has("name") && param.getMapped().startsWith("p_"))
-										{
-											String paramName = paramMapping.getAsJsonObject().get("name").getAsString();
-											if(!paramName.startsWith("p"))
-											{
-												System.out.println("Only checked ParchmentMC mappings are supported!");
-												System.out.println("Please redownload the mappings which should contain \"checked\" in the name");
-												return 4;
-											}
-											params.add(new String[]{param.getMapped(), paramName, side});
-										}
-										
-										// Append parameter javadoc to method
-										if(paramMapping.getAsJsonObject().has("javadoc"))
-										{
-											String paramName = paramMapping.getAsJsonObject().has("name")
-												? paramMapping.getAsJsonObject().get("name").getAsString()
-													: param.getMapped();
-											javadocs.add("@param " + paramName + " "
-												+ paramMapping.getAsJsonObject().get("javadoc").getAsString());
-										}
-									}
-								}
-								
-								// Add javadoc to method
-								IClass srgClazz = srg.getClass(joinedClazz.getMapped());
-								String name = srgClazz.remapMethod(joinedMethod.getMapped(), joinedMethod.getMappedDescriptor());
-								String javadoc = javadocs.stream().reduce((a, b) -> a + "\n" + b).orElse("");
-								javadoc = javadoc.replace("\"", "\"\"").replace("\n", "\\n");
-								if(javadoc.contains(","))
-									javadoc = "\"" + javadoc + "\"";
-								methodJavadocs.put(name, javadoc);
+								reader.skipValue();
+								continue;
 							}
+							reader.beginArray();
+							while(reader.hasNext())
+								if(!readClass(reader, mappings, fieldJavadocs, methodJavadocs, params))
+									return 4;
+							reader.endArray();
 						}
+						reader.endObject();
+						System.out.println("Done parsing parchment.json");
+					}catch(IllegalStateException e)
+					{
+						e.printStackTrace();
+						System.out.println("Unexpected JSON format in parchment.json");
+						return 4;
 					}
-					System.out.println("Done parsing parchment.json");
-				}catch(IllegalStateException e)
-				{
-					e.printStackTrace();
-					System.out.println("Unexpected JSON format in parchment.json");
-					return 4;
 				}
-			}
-			params.sort((a, b) -> {
-				// Assume format p_<number>_
-				int aIndex = Integer.parseInt(a[0].substring(2, a[0].indexOf('_', 2)));
-				int bIndex = Integer.parseInt(b[0].substring(2, b[0].indexOf('_', 2)));
+				params.sort(Comparator.comparingInt(param -> param.sortKey));
 				
-				return Integer.compare(aIndex, bIndex);
-			});
-			params.add(0, new String[]{"param", "name", "side"});
-			
-			System.out.println("Writing to CSV");
-			for(String name : clientFields.keySet())
-			{
-				String cname = clientFields.get(name);
-				String sname = serverFields.get(name);
-				String javadoc = escapeChars(fieldJavadocs.getOrDefault(name, ""));
-				if(cname.equals(sname))
+				System.out.println("Writing to CSV");
+				if(patch)
 				{
-					fields.add(new String[]{name, cname, "2", javadoc});
-					serverFields.remove(name);
+					patchDescriptions(fieldsCsv, fieldJavadocs);
+					patchDescriptions(methodsCsv, methodJavadocs);
 				}else
-					fields.add(new String[]{name, cname, "0", javadoc});
-			}
-			
-			for(String name : clientMethods.keySet())
-			{
-				String cname = clientMethods.get(name);
-				String sname = serverMethods.get(name);
-				String javadoc = escapeChars(methodJavadocs.getOrDefault(name, ""));
-				if(cname.equals(sname))
 				{
-					methods.add(new String[]{name, cname, "2", javadoc});
-					serverMethods.remove(name);
-				}else
-					methods.add(new String[]{name, cname, "0", javadoc});
+					writeMembers(fieldsCsv, mappings.getClientFields(), mappings.getServerFields(), fieldJavadocs);
+					writeMembers(methodsCsv, mappings.getClientMethods(), mappings.getServerMethods(), methodJavadocs);
+				}
+				writeParams(paramsCsv, params);
+				writeManifest(inputs, hashFiles(fieldsCsv, methodsCsv, paramsCsv));
 			}
-			
-			serverFields.forEach((k,v) -> fields.add(new String[] {k, v, "1", ""}));
-			serverMethods.forEach((k,v) -> methods.add(new String[] {k, v, "1", ""}));
-			writeToCSV(new File(confFolder, "fields.csv"), fields);
-			writeToCSV(new File(confFolder, "methods.csv"), methods);
-			writeToCSV(new File(confFolder, "params.csv"), params);
 		}catch(Exception e)
 		{
 			e.printStackTrace();
@@ -293,18 +173,222 @@ public class MappingWriter
 		return 0;
 	}
 	
-	private Map<Integer, Integer> getParamIndexes(String desc, boolean isStatic)
+	// Uses the snapshot if this version made it from the current mapping files, otherwise parses them and saves a
+	// new one. The member tables are only read from the snapshot if needed, a parse always fills them.
+	private ResolvedMappings loadMappings(String key, boolean withTables) throws IOException
+	{
+		try
+		{
+			ResolvedMappings mappings = ResolvedMappings.read(snapshot, key, withTables);
+			if(mappings != null)
+			{
+				System.out.println("Reading mapping snapshot");
+				return mappings;
+			}
+		}catch(IOException e)
+		{
+			System.out.println("Warning: " + e.getMessage() + ", reading the text mappings instead");
+		}
+		
+		System.out.println("Reading mappings");
+		// The files are independent, so they are parsed at the same time
+		CompletableFuture<IMappingFile> clientLoad = loadAsync(client);
+		CompletableFuture<IMappingFile> serverLoad = loadAsync(server);
+		IMappingFile srg = IMappingFile.load(intermediateSrg);
+		IMappingFile clientMapping = await(clientLoad);
+		IMappingFile serverMapping = await(serverLoad);
+		MemberTable clientFields = new MemberTable();
+		MemberTable clientMethods = new MemberTable();
+		MemberTable serverFields = new MemberTable();
+		MemberTable serverMethods = new MemberTable();
+		
+		// Each side fills its own tables, so the two passes do not share any state
+		ClassIndex index = new ClassIndex(clientMapping, serverMapping, srg);
+		CompletableFuture<Void> serverMembers = CompletableFuture.runAsync(
+			() -> addFieldsAndMethods(index.getServerClasses(), true, serverFields, serverMethods));
+		addFieldsAndMethods(index.getClientClasses(), false, clientFields, clientMethods);
+		await(serverMembers);
+		
+		ResolvedMappings mappings = ResolvedMappings.resolve(index, clientFields, clientMethods, serverFields,
+			serverMethods);
+		try
+		{
+			mappings.write(snapshot, key);
+		}catch(IOException e)
+		{
+			System.out.println("Warning: Could not save the mapping snapshot: " + e);
+		}
+		return mappings;
+	}
+	
+	// Reads one class of parchment.json, handling its members as they are read. Members that come before the class
+	// name are kept until the name is known. Returns false if the export is not supported.
+	private boolean readClass(JsonReader reader, ResolvedMappings mappings, JavadocStore fieldJavadocs,
+		JavadocStore methodJavadocs, List<ParamRow> params) throws IOException
+	{
+		String className = null;
+		ResolvedClass clazz = null;
+		JsonArray fieldsList = null;
+		JsonArray methodsList = null;
+		reader.beginObject();
+		while(reader.hasNext())
+		{
+			String key = reader.nextName();
+			if(key.equals("name"))
+			{
+				className = reader.nextString();
+				clazz = mappings.getClass(className);
+				if(clazz == null)
+					System.out.println("Warning: Could not find class " + className);
+			}else if(key.equals("fields") && className == null)
+				fieldsList = JsonParser.parseReader(reader).getAsJsonArray();
+			else if(key.equals("methods") && className == null)
+				methodsList = JsonParser.parseReader(reader).getAsJsonArray();
+			else if(key.equals("fields") && clazz != null)
+			{
+				reader.beginArray();
+				while(reader.hasNext())
+					addFieldJavadoc(className, clazz, JsonParser.parseReader(reader).getAsJsonObject(), fieldJavadocs);
+				reader.endArray();
+			}else if(key.equals("methods") && clazz != null)
+			{
+				reader.beginArray();
+				while(reader.hasNext())
+					if(!addMethod(className, clazz, JsonParser.parseReader(reader).getAsJsonObject(), methodJavadocs, params))
+						return false;
+				reader.endArray();
+			}else
+				reader.skipValue();
+		}
+		reader.endObject();
+		
+		if(clazz == null)
+			return true;
+		for(int i = 0; fieldsList != null && i < fieldsList.size(); i++)
+			addFieldJavadoc(className, clazz, fieldsList.get(i).getAsJsonObject(), fieldJavadocs);
+		for(int i = 0; methodsList != null && i < methodsList.size(); i++)
+			if(!addMethod(className, clazz, methodsList.get(i).getAsJsonObject(), methodJavadocs, params))
+				return false;
+		return true;
+	}
+	
+	private void addFieldJavadoc(String className, ResolvedClass clazz, JsonObject field, JavadocStore fieldJavadocs)
+		throws IOException
+	{
+		String srgName = clazz.getField(field.get("name").getAsString());
+		if(srgName == null)
+		{
+			System.out.println("Warning: Could not find field " + field.get("name").getAsString()
+				+ " in class " + className);
+			return;
+		}
+		
+		// Add javadoc to field
+		fieldJavadocs.begin();
+		for(JsonElement line : field.get("javadoc").getAsJsonArray())
+			fieldJavadocs.addLine(line.getAsString());
+		if(!fieldJavadocs.isEmpty())
+			fieldJavadocs.put(srgName);
+	}
+	
+	// Returns false if the export is not supported
+	private boolean addMethod(String className, ResolvedClass clazz, JsonObject method, JavadocStore methodJavadocs,
+		List<ParamRow> params) throws IOException
+	{
+		ResolvedMethod resolved = clazz.getMethod(method.get("name").getAsString(),
+			method.get("descriptor").getAsString());
+		if(resolved == null)
+		{
+			System.out.println("Warning: Could not find method " + method.get("name").getAsString()
+				+ method.get("descriptor").getAsString()
+				+ " in class " + className);
+			return true;
+		}
+		
+		String side = resolved.getSide();
+		methodJavadocs.begin();
+		
+		// Append javadoc to method
+		if(method.has("javadoc"))
+			for(JsonElement line : method.get("javadoc").getAsJsonArray())
+				methodJavadocs.addLine(line.getAsString());
+		
+		if(method.has("parameters"))
+		{
+			// Parchment refers to parameters by JVM slot, srg by argument index
+			String[] srgParams = resolved.getParameters();
+			int paramCount = getParamSlots(resolved.getDescriptor(), resolved.isStatic());
+			int slotCount = paramCount == 0 ? 0 : paramSlots[paramCount - 1] + 2;
+			if(paramsBySlot.length < slotCount)
+				paramsBySlot = new String[Math.max(slotCount, paramsBySlot.length * 2)];
+			else
+				Arrays.fill(paramsBySlot, 0, slotCount, null);
+			for(int i = 0; i < Math.min(srgParams.length, paramCount); i++)
+				paramsBySlot[paramSlots[i]] = srgParams[i];
+			
+			JsonArray paramsList = method.get("parameters").getAsJsonArray();
+			for(JsonElement paramMapping : paramsList)
+			{
+				int slot = paramMapping.getAsJsonObject().get("index").getAsInt();
+				String param = slot >= 0 && slot < slotCount ? paramsBySlot[slot] : null;
+				if(param == null)
+				{
+					System.out.println("Warning: Could not find parameter "
+						+ paramMapping.getAsJsonObject().get("index").getAsInt()
+						+ " in method " + method.get("name").getAsString()
+						+ method.get("descriptor").getAsString()
+						+ " in class " + className);
+					continue;
+				}
+				
+				// Add parameter mapping
+				if(paramMapping.getAsJsonObject().has("name") && param.startsWith("p_"))
+				{
+					String paramName = paramMapping.getAsJsonObject().get("name").getAsString();
+					if(!paramName.startsWith("p"))
+					{
+						System.out.println("Only checked ParchmentMC mappings are supported!");
+						System.out.println("Please redownload the mappings which should contain \"checked\" in the name");
+						return false;
+					}
+					params.add(new ParamRow(param, paramName, side));
+				}
+				
+				// Append parameter javadoc to method
+				if(paramMapping.getAsJsonObject().has("javadoc"))
+				{
+					String paramName = paramMapping.getAsJsonObject().has("name")
+						? paramMapping.getAsJsonObject().get("name").getAsString()
+							: param;
+					methodJavadocs.addLine("@param " + paramName + " "
+						+ paramMapping.getAsJsonObject().get("javadoc").getAsString());
+				}
+			}
+		}
+		
+		// Add javadoc to method
+		methodJavadocs.put(resolved.getSrgName());
+		return true;
+	}
+	
+	// Fills paramSlots with the JVM local variable slot of each argument in the descriptor and returns the number
+	// of arguments. Long and double arguments take two slots.
+	private int getParamSlots(String desc, boolean isStatic)
 	{
-		Map<Integer, Integer> indexes = new HashMap<>();
 		int argIndex = 0;
 		int jvmIndex = isStatic ? 0 : 1;
 		if(desc.charAt(0) != '(')
 			throw new IllegalArgumentException("Invalid method descriptor found: " + desc);
 		
 		int i = 1;
-		while (i < desc.length())
+		while(i < desc.length())
 		{
 			char c = desc.charAt(i);
+			if(c == ')')
+				break;
+			if(argIndex == paramSlots.length)
+				paramSlots = Arrays.copyOf(paramSlots, argIndex * 2);
+			paramSlots[argIndex++] = jvmIndex;
 			switch(c)
 			{
 				case 'I':
@@ -314,22 +398,21 @@ public class MappingWriter
 				case 'S':
 				case 'Z':
 					// Primitive types
-					indexes.put(argIndex++, jvmIndex++);
+					jvmIndex++;
 					i++;
 					break;
 				case 'J':
 				case 'D':
 					// Primitive types (2 entries)
-					indexes.put(argIndex++, jvmIndex);
 					jvmIndex += 2;
 					i++;
 					break;
 				case 'L':
 					// Object type (skip until ';')
-					indexes.put(argIndex++, jvmIndex++);
-					while(desc.charAt(i) != ';')
-						i++;
-					i++;
+					jvmIndex++;
+					i = desc.indexOf(';', i) + 1;
+					if(i == 0)
+						throw new IllegalArgumentException("Invalid method descriptor found: " + desc);
 					break;
 				case '[':
 					// Array type
@@ -339,37 +422,190 @@ public class MappingWriter
 						while(desc.charAt(i) != ';')
 							i++;
 					// Skip ';' or primitive type
-					indexes.put(argIndex++, jvmIndex++);
+					jvmIndex++;
 					i++;
 					break;
-				case ')':
-					i = desc.length();
-					break;
 				default:
 					throw new IllegalArgumentException("Unknown type in method descriptor: " + c);
 			}
 		}
-		
-		return indexes;
+		return argIndex;
 	}
 	
-	private String escapeChars(String input)
+	// Members with the same name on both sides are written once as side 2, the remaining server members come last.
+	// All three tables are sorted by srg name, so they are joined in one pass instead of with lookups.
+	private void writeMembers(File file, MemberTable client, MemberTable server, JavadocStore javadocs)
+		throws IOException
 	{
-		StringBuilder output = new StringBuilder();
-		for(char ch : input.toCharArray())
-			if(ch > 127)
-				output.append(String.format("\\u%04x", (int)ch));
-			else
-				output.append(ch);
-		
-		return output.toString();
+		try(Writer writer = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset()))
+		{
+			writer.write("searge,name,side,desc\n");
+			boolean[] matched = new boolean[server.size()];
+			int serverIndex = 0;
+			int javadocIndex = 0;
+			for(int i = 0; i < client.size(); i++)
+			{
+				String name = client.getKey(i);
+				String cname = client.getValue(i);
+				while(serverIndex < server.size() && server.getKey(serverIndex).compareTo(name) < 0)
+					serverIndex++;
+				while(javadocIndex < javadocs.size() && javadocs.getKey(javadocIndex).compareTo(name) < 0)
+					javadocIndex++;
+				String side = "0";
+				if(serverIndex < server.size() && server.getKey(serverIndex).equals(name)
+					&& cname.equals(server.getValue(serverIndex)))
+				{
+					side = "2";
+					matched[serverIndex] = true;
+				}
+				writer.write(name + "," + cname + "," + side + ",");
+				if(javadocIndex < javadocs.size() && javadocs.getKey(javadocIndex).equals(name))
+					javadocs.write(javadocIndex, writer);
+				writer.write('\n');
+			}
+			for(int i = 0; i < server.size(); i++)
+				if(!matched[i])
+					writer.write(server.getKey(i) + "," + server.getValue(i) + ",1,\n");
+		}
+	}
+	
+	// Replaces the desc column of a csv file written by writeMembers, keeping the other columns. The first three
+	// columns never contain a comma, and server only rows (side 1) never have a desc.
+	private void patchDescriptions(File file, JavadocStore javadocs) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		try(Reader reader = Files.newBufferedReader(file.toPath(), Charset.defaultCharset());
+			Writer writer = Files.newBufferedWriter(temp.toPath(), Charset.defaultCharset()))
+		{
+			StringBuilder line = new StringBuilder();
+			if(readLine(reader, line))
+				writer.write(line + "\n");
+			while(readLine(reader, line))
+			{
+				int sideEnd = line.indexOf(",", line.indexOf(",", line.indexOf(",") + 1) + 1);
+				if(sideEnd < 0)
+					throw new IOException("Unexpected line in " + file + ": " + line);
+				String side = line.substring(line.lastIndexOf(",", sideEnd - 1) + 1, sideEnd);
+				int javadoc = side.equals("1") ? -1 : javadocs.indexOf(line.substring(0, line.indexOf(",")));
+				line.setLength(sideEnd + 1);
+				writer.write(line.toString());
+				if(javadoc >= 0)
+					javadocs.write(javadoc, writer);
+				writer.write('\n');
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 	}
 	
-	private void addFieldsAndMethods(IMappingFile file, IMappingFile srg, Map<String, String> fields, Map<String, String> methods)
+	// Reads up to the next \n into line. Only \n ends a line, as a desc may contain a \r.
+	private static boolean readLine(Reader reader, StringBuilder line) throws IOException
 	{
-		for(IClass cls : file.getClasses())
+		line.setLength(0);
+		int ch;
+		while((ch = reader.read()) != -1 && ch != '\n')
+			line.append((char)ch);
+		return ch != -1 || line.length() > 0;
+	}
+	
+	private void writeParams(File file, List<ParamRow> params) throws IOException
+	{
+		try(Writer writer = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset()))
 		{
-			IClass obf = srg.getClass(cls.getMapped());
+			writer.write("param,name,side\n");
+			for(ParamRow param : params)
+				writer.write(param.srgName + "," + param.name + "," + param.side + "\n");
+		}
+	}
+	
+	// The SHA-1 of each file by name, with an empty string for a missing file
+	private static JsonObject hashFiles(File... files) throws IOException
+	{
+		JsonObject hashes = new JsonObject();
+		for(File file : files)
+			hashes.addProperty(file.getName(), file.isFile() ? Checksums.sha1(file) : "");
+		return hashes;
+	}
+	
+	private static boolean sameHashes(JsonObject hashes, JsonObject previous, File... files)
+	{
+		for(File file : files)
+			if(!hashes.get(file.getName()).equals(previous.get(file.getName())))
+				return false;
+		return true;
+	}
+	
+	// Null if there is no manifest, it can not be read or it was written by another version, which makes the next
+	// run a full one
+	private JsonObject readManifest()
+	{
+		if(!manifest.isFile())
+			return null;
+		try(Reader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8))
+		{
+			JsonElement element = JsonParser.parseReader(reader);
+			if(!element.isJsonObject() || !element.getAsJsonObject().has("inputs")
+				|| !element.getAsJsonObject().has("outputs"))
+				return null;
+			if(!new JsonPrimitive(OUTPUT_VERSION).equals(element.getAsJsonObject().get("version")))
+			{
+				System.out.println("The csv files were written by another version, rebuilding all csv files");
+				return null;
+			}
+			return element.getAsJsonObject();
+		}catch(IOException | JsonParseException e)
+		{
+			System.out.println("Warning: Could not read " + manifest.getName() + ", rebuilding all csv files");
+		}
+		return null;
+	}
+	
+	private void writeManifest(JsonObject inputs, JsonObject outputs) throws IOException
+	{
+		JsonObject object = new JsonObject();
+		object.addProperty("version", OUTPUT_VERSION);
+		object.add("inputs", inputs);
+		object.add("outputs", outputs);
+		try(Writer writer = Files.newBufferedWriter(manifest.toPath(), StandardCharsets.UTF_8))
+		{
+			new GsonBuilder().setPrettyPrinting().create().toJson(object, writer);
+		}
+	}
+	
+	private static CompletableFuture<IMappingFile> loadAsync(File file)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try
+			{
+				return IMappingFile.load(file);
+			}catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+	
+	// Rethrows failures of the background task as they were thrown there
+	private static <T> T await(CompletableFuture<T> future) throws IOException
+	{
+		try
+		{
+			return future.join();
+		}catch(CompletionException e)
+		{
+			if(e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException)e.getCause()).getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw e;
+		}
+	}
+	
+	private void addFieldsAndMethods(List<JoinedClass> classes, boolean server, MemberTable fields, MemberTable methods)
+	{
+		for(JoinedClass joined : classes)
+		{
+			IClass cls = server ? joined.getServer() : joined.getClient();
+			IClass obf = joined.getSrg(server);
 			if(obf == null)
 				continue;
 			for(IField fld : cls.getFields())
@@ -387,12 +623,20 @@ public class MappingWriter
 		}
 	}
 	
-	private void writeToCSV(File file, List<String[]> write) throws IOException
+	private static class ParamRow
 	{
-		file.createNewFile();
-		FileWriter writer = new FileWriter(file);
-		for(String[] w : write)
-			writer.write(String.join(",", w) + "\n");
-		writer.close();
+		private final String srgName;
+		private final String name;
+		private final String side;
+		private final int sortKey;
+		
+		private ParamRow(String srgName, String name, String side)
+		{
+			this.srgName = srgName;
+			this.name = name;
+			this.side = side;
+			// Assume format p_<number>_
+			sortKey = Integer.parseInt(srgName.substring(2, srgName.indexOf('_', 2)));
+		}
 	}
 }
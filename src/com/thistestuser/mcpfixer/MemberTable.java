@@ -0,0 +1,75 @@
+package com.thistestuser.mcpfixer;
+
+import java.util.Arrays;
+
+// Maps SRG names to names or javadocs in csv mode. The entries are kept in two parallel arrays sorted by key, so
+// a table costs two references per entry instead of a TreeMap node. Tables are filled first and read afterwards:
+// adding marks the table unsorted and the next read sorts it. If a key is added twice, the last value wins.
+public class MemberTable
+{
+	private String[] keys;
+	private String[] values;
+	private int size;
+	private boolean sorted = true;
+	
+	public MemberTable()
+	{
+		this(1024);
+	}
+	
+	public MemberTable(int capacity)
+	{
+		keys = new String[Math.max(capacity, 1)];
+		values = new String[keys.length];
+	}
+	
+	public void put(String key, String value)
+	{
+		if(size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		if(size > 0 && keys[size - 1].compareTo(key) >= 0)
+			sorted = false;
+		keys[size] = key;
+		values[size] = value;
+		size++;
+	}
+	
+	public int size()
+	{
+		sort();
+		return size;
+	}
+	
+	public String getKey(int index)
+	{
+		sort();
+		return keys[index];
+	}
+	
+	public String getValue(int index)
+	{
+		sort();
+		return values[index];
+	}
+	
+	private void sort()
+	{
+		if(sorted)
+			return;
+		int[] order = KeyOrder.of(keys, size);
+		size = order.length;
+		String[] sortedKeys = new String[Math.max(size, 1)];
+		String[] sortedValues = new String[sortedKeys.length];
+		for(int i = 0; i < size; i++)
+		{
+			sortedKeys[i] = keys[order[i]];
+			sortedValues[i] = values[order[i]];
+		}
+		keys = sortedKeys;
+		values = sortedValues;
+		sorted = true;
+	}
+}
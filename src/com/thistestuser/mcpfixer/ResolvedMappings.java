@@ -0,0 +1,371 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thistestuser.mcpfixer.ClassIndex.JoinedClass;
+
+import net.minecraftforge.srgutils.IMappingFile.IClass;
+import net.minecraftforge.srgutils.IMappingFile.IField;
+import net.minecraftforge.srgutils.IMappingFile.IMethod;
+import net.minecraftforge.srgutils.IMappingFile.IParameter;
+
+// Everything csv mode needs from client.txt, server.txt and the srg file: the four member tables, and the srg
+// names of every member by official name for the parchment pass. It can be saved as a binary snapshot, which
+// later runs with the same input files map instead of parsing the text mappings again.
+public class ResolvedMappings
+{
+	private static final int MAGIC = 0x4D435046;
+	private static final int VERSION = 1;
+	
+	private final MemberTable clientFields;
+	private final MemberTable clientMethods;
+	private final MemberTable serverFields;
+	private final MemberTable serverMethods;
+	private final Map<String, ResolvedClass> classes;
+	
+	private ResolvedMappings(MemberTable clientFields, MemberTable clientMethods, MemberTable serverFields,
+		MemberTable serverMethods, Map<String, ResolvedClass> classes)
+	{
+		this.clientFields = clientFields;
+		this.clientMethods = clientMethods;
+		this.serverFields = serverFields;
+		this.serverMethods = serverMethods;
+		this.classes = classes;
+	}
+	
+	// Classes without an srg entry are left out, so the parchment pass reports them as missing
+	public static ResolvedMappings resolve(ClassIndex index, MemberTable clientFields, MemberTable clientMethods,
+		MemberTable serverFields, MemberTable serverMethods)
+	{
+		Map<String, ResolvedClass> classes = new HashMap<>();
+		for(List<JoinedClass> side : Arrays.asList(index.getClientClasses(), index.getServerClasses()))
+			for(JoinedClass joined : side)
+			{
+				String name = joined.getJoined().getOriginal();
+				if(classes.containsKey(name) || joined.getJoinedSrg() == null)
+					continue;
+				classes.put(name, resolveClass(joined));
+			}
+		return new ResolvedMappings(clientFields, clientMethods, serverFields, serverMethods, classes);
+	}
+	
+	private static ResolvedClass resolveClass(JoinedClass joined)
+	{
+		IClass srg = joined.getJoinedSrg();
+		IClass client = joined.getClient();
+		IClass server = joined.getServer();
+		ResolvedClass resolved = new ResolvedClass();
+		// The client member wins if both sides have it
+		if(server != null)
+			for(IField field : server.getFields())
+				resolved.fields.put(field.getOriginal(), srg.remapField(field.getMapped()));
+		if(client != null)
+			for(IField field : client.getFields())
+				resolved.fields.put(field.getOriginal(), srg.remapField(field.getMapped()));
+		
+		if(client != null)
+			for(IMethod method : client.getMethods())
+				resolved.methods.put(method.getOriginal() + method.getDescriptor(), resolveMethod(srg, method,
+					server != null && server.getMethod(method.getOriginal(), method.getDescriptor()) != null ? "2" : "0"));
+		if(server != null)
+			for(IMethod method : server.getMethods())
+				if(client == null || client.getMethod(method.getOriginal(), method.getDescriptor()) == null)
+					resolved.methods.put(method.getOriginal() + method.getDescriptor(), resolveMethod(srg, method, "1"));
+		return resolved;
+	}
+	
+	private static ResolvedMethod resolveMethod(IClass srg, IMethod method, String side)
+	{
+		IMethod srgMethod = srg.getMethod(method.getMapped(), method.getMappedDescriptor());
+		String[] params = new String[0];
+		if(srgMethod != null)
+			for(IParameter param : srgMethod.getParameters())
+			{
+				int index = param.getIndex();
+				if(index < 0)
+					continue;
+				if(index >= params.length)
+				{
+					String[] grown = new String[index + 1];
+					System.arraycopy(params, 0, grown, 0, params.length);
+					params = grown;
+				}
+				// The first parameter for an index wins
+				if(params[index] == null)
+					params[index] = param.getMapped();
+			}
+		return new ResolvedMethod(srg.remapMethod(method.getMapped(), method.getMappedDescriptor()), side,
+			method.getMappedDescriptor(), srgMethod != null && srgMethod.getMetadata().containsKey("is_static"), params);
+	}
+	
+	public MemberTable getClientFields()
+	{
+		return clientFields;
+	}
+	
+	public MemberTable getClientMethods()
+	{
+		return clientMethods;
+	}
+	
+	public MemberTable getServerFields()
+	{
+		return serverFields;
+	}
+	
+	public MemberTable getServerMethods()
+	{
+		return serverMethods;
+	}
+	
+	// Null if neither side has the class or srg does not have it
+	public ResolvedClass getClass(String name)
+	{
+		return classes.get(name);
+	}
+	
+	// The snapshot starts with the magic, the format version and the key. Then follow a table of every distinct
+	// string, the four member tables and the classes, all referring to strings by their position in the table.
+	public void write(File file, String key) throws IOException
+	{
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 20);
+		DataOutputStream out = new DataOutputStream(body);
+		for(MemberTable table : new MemberTable[]{clientFields, clientMethods, serverFields, serverMethods})
+		{
+			out.writeInt(table.size());
+			for(int i = 0; i < table.size(); i++)
+			{
+				out.writeInt(strings.indexOf(table.getKey(i)));
+				out.writeInt(strings.indexOf(table.getValue(i)));
+			}
+		}
+		out.writeInt(classes.size());
+		for(Map.Entry<String, ResolvedClass> entry : classes.entrySet())
+		{
+			ResolvedClass cls = entry.getValue();
+			out.writeInt(strings.indexOf(entry.getKey()));
+			out.writeInt(cls.fields.size());
+			for(Map.Entry<String, String> field : cls.fields.entrySet())
+			{
+				out.writeInt(strings.indexOf(field.getKey()));
+				out.writeInt(strings.indexOf(field.getValue()));
+			}
+			out.writeInt(cls.methods.size());
+			for(Map.Entry<String, ResolvedMethod> methodEntry : cls.methods.entrySet())
+			{
+				ResolvedMethod method = methodEntry.getValue();
+				out.writeInt(strings.indexOf(methodEntry.getKey()));
+				out.writeInt(strings.indexOf(method.srgName));
+				out.writeByte(method.side.charAt(0));
+				out.writeInt(strings.indexOf(method.descriptor));
+				out.writeBoolean(method.isStatic);
+				out.writeInt(method.params.length);
+				for(String param : method.params)
+					out.writeInt(param == null ? -1 : strings.indexOf(param));
+			}
+		}
+		out.flush();
+		
+		// Written next to the snapshot and moved over it, so a failed write never leaves a broken snapshot behind
+		File temp = new File(file.getPath() + ".tmp");
+		try(OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(temp.toPath())))
+		{
+			DataOutputStream header = new DataOutputStream(fileOut);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			writeString(header, key);
+			header.writeInt(strings.list.size());
+			for(String string : strings.list)
+				writeString(header, string);
+			header.flush();
+			body.writeTo(fileOut);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	private static void writeString(DataOutputStream out, String string) throws IOException
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	// Returns null if there is no snapshot or it was made from other input files. The key is checked with a plain
+	// read, and the file is only mapped when it matches: the mapping is only released by the GC, and on Windows a
+	// mapped file can not be replaced. Without withTables the member tables are skipped and their getters return null.
+	public static ResolvedMappings read(File file, String key, boolean withTables) throws IOException
+	{
+		if(!file.isFile())
+			return null;
+		byte[] expectedKey = key.getBytes(StandardCharsets.UTF_8);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(12 + expectedKey.length);
+			while(header.hasRemaining())
+				if(channel.read(header) < 0)
+					return null;
+			header.flip();
+			if(header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != expectedKey.length)
+				return null;
+			for(byte b : expectedKey)
+				if(header.get() != b)
+					return null;
+			
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.position(header.limit());
+			String[] strings = new String[buffer.getInt()];
+			for(int i = 0; i < strings.length; i++)
+			{
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			MemberTable[] tables = new MemberTable[4];
+			for(int t = 0; t < tables.length; t++)
+			{
+				int size = buffer.getInt();
+				if(!withTables)
+				{
+					buffer.position(buffer.position() + size * 8);
+					continue;
+				}
+				// Written in sorted order, so the table never needs sorting
+				tables[t] = new MemberTable(size);
+				for(int i = 0; i < size; i++)
+					tables[t].put(strings[buffer.getInt()], strings[buffer.getInt()]);
+			}
+			int classCount = buffer.getInt();
+			Map<String, ResolvedClass> classes = new HashMap<>(classCount * 2);
+			for(int c = 0; c < classCount; c++)
+			{
+				String name = strings[buffer.getInt()];
+				ResolvedClass cls = new ResolvedClass();
+				int fieldCount = buffer.getInt();
+				for(int i = 0; i < fieldCount; i++)
+					cls.fields.put(strings[buffer.getInt()], strings[buffer.getInt()]);
+				int methodCount = buffer.getInt();
+				for(int i = 0; i < methodCount; i++)
+				{
+					String methodKey = strings[buffer.getInt()];
+					String srgName = strings[buffer.getInt()];
+					String side = String.valueOf((char)buffer.get());
+					String descriptor = strings[buffer.getInt()];
+					boolean isStatic = buffer.get() != 0;
+					String[] params = new String[buffer.getInt()];
+					for(int p = 0; p < params.length; p++)
+					{
+						int index = buffer.getInt();
+						params[p] = index < 0 ? null : strings[index];
+					}
+					cls.methods.put(methodKey, new ResolvedMethod(srgName, side, descriptor, isStatic, params));
+				}
+				classes.put(name, cls);
+			}
+			return new ResolvedMappings(tables[0], tables[1], tables[2], tables[3], classes);
+		}catch(RuntimeException e)
+		{
+			// Truncated or otherwise damaged
+			throw new IOException("Mapping snapshot " + file + " is damaged", e);
+		}
+	}
+	
+	public static class ResolvedClass
+	{
+		private final Map<String, String> fields = new HashMap<>();
+		private final Map<String, ResolvedMethod> methods = new HashMap<>();
+		
+		// The srg name of the field, or null if neither side has it
+		public String getField(String name)
+		{
+			return fields.get(name);
+		}
+		
+		// Null if neither side has the method
+		public ResolvedMethod getMethod(String name, String descriptor)
+		{
+			return methods.get(name + descriptor);
+		}
+	}
+	
+	public static class ResolvedMethod
+	{
+		private final String srgName;
+		private final String side;
+		private final String descriptor;
+		private final boolean isStatic;
+		private final String[] params;
+		
+		private ResolvedMethod(String srgName, String side, String descriptor, boolean isStatic, String[] params)
+		{
+			this.srgName = srgName;
+			this.side = side;
+			this.descriptor = descriptor;
+			this.isStatic = isStatic;
+			this.params = params;
+		}
+		
+		public String getSrgName()
+		{
+			return srgName;
+		}
+		
+		// 0 for client only, 1 for server only and 2 for both
+		public String getSide()
+		{
+			return side;
+		}
+		
+		// The obfuscated descriptor, which has the same argument layout as the official one
+		public String getDescriptor()
+		{
+			return descriptor;
+		}
+		
+		public boolean isStatic()
+		{
+			return isStatic;
+		}
+		
+		// The srg parameter names by argument index, with null where srg has none
+		public String[] getParameters()
+		{
+			return params;
+		}
+	}
+	
+	private static class StringTable
+	{
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private final List<String> list = new ArrayList<>();
+		
+		private int indexOf(String string)
+		{
+			Integer index = indexes.get(string);
+			if(index == null)
+			{
+				index = list.size();
+				indexes.put(string, index);
+				list.add(string);
+			}
+			return index;
+		}
+	}
+}
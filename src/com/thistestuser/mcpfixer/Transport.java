@@ -0,0 +1,27 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+// Sends the GET requests of the download mode. Transports.create() picks the implementation for the running JVM.
+public interface Transport
+{
+	// Non-HTTP URLs (local mirrors) are answered with status 200
+	Response get(URL url, Map<String, String> headers) throws IOException;
+	
+	interface Response extends Closeable
+	{
+		int getStatus();
+		
+		// Null if the header is not present
+		String getHeader(String name);
+		
+		// -1 if unknown
+		long getContentLength();
+		
+		InputStream getBody() throws IOException;
+	}
+}
@@ -0,0 +1,15 @@
+package com.thistestuser.mcpfixer;
+
+// Java 11+ replaces this class with the one in src-java11 (multi-release jar), which uses java.net.http
+public class Transports
+{
+	private Transports()
+	{
+	}
+	
+	// Timeouts are in milliseconds, 0 for none
+	public static Transport create(int connectTimeout, int readTimeout)
+	{
+		return new UrlConnectionTransport(connectTimeout, readTimeout);
+	}
+}
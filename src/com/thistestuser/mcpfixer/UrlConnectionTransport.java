@@ -0,0 +1,83 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+// Plain URLConnection requests. The default on Java 8, and used for file: URLs everywhere.
+public class UrlConnectionTransport implements Transport
+{
+	private final int connectTimeout;
+	private final int readTimeout;
+	
+	public UrlConnectionTransport(int connectTimeout, int readTimeout)
+	{
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+	
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException
+	{
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		headers.forEach(connection::setRequestProperty);
+		int status = 200;
+		if(connection instanceof HttpURLConnection)
+			status = ((HttpURLConnection)connection).getResponseCode();
+		return new ConnectionResponse(connection, status);
+	}
+	
+	private static class ConnectionResponse implements Response
+	{
+		private final URLConnection connection;
+		private final int status;
+		private InputStream body;
+		
+		private ConnectionResponse(URLConnection connection, int status)
+		{
+			this.connection = connection;
+			this.status = status;
+		}
+		
+		@Override
+		public int getStatus()
+		{
+			return status;
+		}
+		
+		@Override
+		public String getHeader(String name)
+		{
+			return connection.getHeaderField(name);
+		}
+		
+		@Override
+		public long getContentLength()
+		{
+			return connection.getContentLengthLong();
+		}
+		
+		@Override
+		public InputStream getBody() throws IOException
+		{
+			if(body == null)
+				body = connection.getInputStream();
+			return body;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if(body != null)
+				body.close();
+			else if(connection instanceof HttpURLConnection)
+				// The body was never read, so the connection can not be reused
+				((HttpURLConnection)connection).disconnect();
+		}
+	}
+}
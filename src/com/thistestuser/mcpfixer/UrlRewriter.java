@@ -0,0 +1,66 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Maps URL prefixes to mirrors. Each line of the config file is "<prefix> <replacement>", where the
+// replacement is another URL or a local directory laid out like the original server. Lines starting with #
+// are ignored and the longest matching prefix wins.
+public class UrlRewriter
+{
+	private final List<String[]> rules = new ArrayList<>();
+	
+	public UrlRewriter()
+	{
+	}
+	
+	public UrlRewriter(File config) throws IOException
+	{
+		int lineNumber = 0;
+		for(String line : Files.readAllLines(config.toPath(), StandardCharsets.UTF_8))
+		{
+			lineNumber++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] split = line.split("\\s+", 2);
+			if(split.length != 2)
+				throw new IOException("Expected \"<prefix> <replacement>\" on line " + lineNumber + " of " + config);
+			rules.add(new String[]{split[0], toUrlPrefix(split[1], split[0].endsWith("/"))});
+		}
+		rules.sort(Comparator.comparingInt((String[] rule) -> rule[0].length()).reversed());
+	}
+	
+	private static String toUrlPrefix(String replacement, boolean directory)
+	{
+		if(replacement.matches("^[a-zA-Z][a-zA-Z0-9+.-]+:/.*"))
+			return replacement;
+		// A local directory
+		String uri = new File(replacement).getAbsoluteFile().toURI().toString();
+		if(!directory && uri.endsWith("/"))
+			uri = uri.substring(0, uri.length() - 1);
+		else if(directory && !uri.endsWith("/"))
+			uri += "/";
+		return uri;
+	}
+	
+	public String rewrite(String url)
+	{
+		for(String[] rule : rules)
+			if(url.startsWith(rule[0]))
+				return rule[1] + url.substring(rule[0].length());
+		return url;
+	}
+	
+	public URL toURL(String url) throws MalformedURLException
+	{
+		return new URL(rewrite(url));
+	}
+}
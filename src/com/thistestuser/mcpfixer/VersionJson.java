@@ -0,0 +1,244 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// The parts of a version JSON used by MCPFixer, with the library rules already evaluated for this OS
+public class VersionJson
+{
+	private final String id;
+	private final Artifact client;
+	private final Artifact server;
+	private final List<Library> libraries;
+	
+	private VersionJson(String id, Artifact client, Artifact server, List<Library> libraries)
+	{
+		this.id = id;
+		this.client = client;
+		this.server = server;
+		this.libraries = Collections.unmodifiableList(libraries);
+	}
+	
+	public static VersionJson load(File json) throws IOException
+	{
+		JsonObject versionObject;
+		try(Reader reader = Files.newBufferedReader(json.toPath()))
+		{
+			versionObject = JsonParser.parseReader(reader).getAsJsonObject();
+		}
+		
+		JsonObject downloads = versionObject.getAsJsonObject("downloads");
+		Artifact client = downloads != null && downloads.has("client") ?
+			new Artifact(null, downloads.getAsJsonObject("client")) : null;
+		Artifact server = downloads != null && downloads.has("server") ?
+			new Artifact(null, downloads.getAsJsonObject("server")) : null;
+		
+		String os = OS.getOS().name;
+		List<Library> libraries = new ArrayList<>();
+		JsonArray libraryArray = versionObject.getAsJsonArray("libraries");
+		for(int i = 0; libraryArray != null && i < libraryArray.size(); i++)
+		{
+			JsonObject entry = libraryArray.get(i).getAsJsonObject();
+			JsonObject libDownloads = entry.getAsJsonObject("downloads");
+			if(libDownloads == null)
+				continue;
+			JsonObject artifact = libDownloads.getAsJsonObject("artifact");
+			JsonObject classifiers = libDownloads.getAsJsonObject("classifiers");
+			
+			boolean includeArtifact;
+			boolean includeNatives;
+			if(entry.has("rules"))
+				includeArtifact = includeNatives = isAllowed(entry.getAsJsonArray("rules"), os);
+			else
+			{
+				// Entries with natives and no rules only contribute the natives
+				includeArtifact = classifiers == null;
+				includeNatives = true;
+			}
+			
+			Artifact lib = includeArtifact && artifact != null ? new Artifact(artifact) : null;
+			Artifact natives = includeNatives && classifiers != null && classifiers.has("natives-" + os) ?
+				new Artifact(classifiers.getAsJsonObject("natives-" + os)) : null;
+			if(lib != null || natives != null)
+				libraries.add(new Library(entry.has("name") ? entry.get("name").getAsString() : null,
+					lib, natives, entry.has("extract")));
+		}
+		return new VersionJson(versionObject.has("id") ? versionObject.get("id").getAsString() : null,
+			client, server, libraries);
+	}
+	
+	private static boolean isAllowed(JsonArray rules, String os)
+	{
+		for(int i = 0; i < rules.size(); i++)
+		{
+			JsonObject ruleEntry = rules.get(i).getAsJsonObject();
+			JsonElement action = ruleEntry.get("action");
+			
+			JsonObject osRule = ruleEntry.getAsJsonObject("os");
+			
+			if(Objects.equals(action.getAsString(), "disallow"))
+				if(ruleEntry.has("os"))
+				{
+					JsonElement name = osRule.get("name");
+					if(Objects.equals(name.getAsString(), os) || name.getAsString().contains("osx") && os.contains("mac"))
+						return false;
+					else
+						return true;
+				}else
+					continue;
+			
+			if(Objects.equals(action.getAsString(), "allow"))
+				if(ruleEntry.has("os"))
+				{
+					JsonElement name = osRule.get("name");
+					if(Objects.equals(name.getAsString(), os) || name.getAsString().contains("osx") && os.contains("mac"))
+						return true;
+				}
+		}
+		return false;
+	}
+	
+	public String getId()
+	{
+		return id;
+	}
+	
+	public Artifact getClient()
+	{
+		return client;
+	}
+	
+	public Artifact getServer()
+	{
+		return server;
+	}
+	
+	public List<Library> getLibraries()
+	{
+		return libraries;
+	}
+	
+	public static class Artifact
+	{
+		private final String path;
+		private final String url;
+		private final long size;
+		private final String sha1;
+		
+		private Artifact(JsonObject artifact)
+		{
+			this(artifact.get("path").getAsString(), artifact);
+		}
+		
+		private Artifact(String path, JsonObject artifact)
+		{
+			this.path = path;
+			url = artifact.get("url").getAsString();
+			size = artifact.has("size") ? artifact.get("size").getAsLong() : -1;
+			sha1 = artifact.has("sha1") ? artifact.get("sha1").getAsString() : null;
+		}
+		
+		// Relative to the libraries folder, null for the client and server jars
+		public String getPath()
+		{
+			return path;
+		}
+		
+		public String getFileName()
+		{
+			return path.substring(path.lastIndexOf('/') + 1);
+		}
+		
+		public String getUrl()
+		{
+			return url;
+		}
+		
+		public long getSize()
+		{
+			return size;
+		}
+		
+		public String getSha1()
+		{
+			return sha1;
+		}
+	}
+	
+	public static class Library
+	{
+		private final String name;
+		private final Artifact artifact;
+		private final Artifact natives;
+		private final boolean extract;
+		
+		private Library(String name, Artifact artifact, Artifact natives, boolean extract)
+		{
+			this.name = name;
+			this.artifact = artifact;
+			this.natives = natives;
+			this.extract = extract;
+		}
+		
+		public String getName()
+		{
+			return name;
+		}
+		
+		// Null if only the natives of this library are needed
+		public Artifact getArtifact()
+		{
+			return artifact;
+		}
+		
+		// The natives for this OS, or null if there are none (< 1.19)
+		public Artifact getNatives()
+		{
+			return natives;
+		}
+		
+		public boolean shouldExtract()
+		{
+			return extract;
+		}
+	}
+	
+	//Derived from https://github.com/MinecraftForge/ForgeGradle/blob/FG_5.0/src/common/java/net/minecraftforge/gradle/common/util/VersionJson.java
+	private enum OS
+	{
+		WINDOWS("windows"),
+		MACOS("macos"),
+		LINUX("linux"),
+		UNKNOWN("unknown");
+		
+		private final String name;
+		
+		OS(String name)
+		{
+			this.name = name;
+		}
+		
+		public static OS getOS()
+		{
+			String property =
+				System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+			
+			for(OS os : OS.values())
+				if(property.contains(os.name))
+					return os;
+			return UNKNOWN;
+		}
+	}
+}
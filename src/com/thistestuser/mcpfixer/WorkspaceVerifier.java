@@ -0,0 +1,230 @@
+package com.thistestuser.mcpfixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import com.thistestuser.mcpfixer.VersionJson.Artifact;
+import com.thistestuser.mcpfixer.VersionJson.Library;
+
+// Checks the jars of a downloaded workspace against the version JSON. Every file is hashed on its own core.
+public class WorkspaceVerifier
+{
+	private final String version;
+	private final File mcpFolder;
+	private final FileDownloader repairer;
+	
+	// repairer is null if broken files should only be reported
+	public WorkspaceVerifier(String version, File mcpFolder, FileDownloader repairer)
+	{
+		this.version = version;
+		this.mcpFolder = mcpFolder;
+		this.repairer = repairer;
+	}
+	
+	public int run() throws IOException
+	{
+		File versionJson = new File(mcpFolder, "jars/versions/" + version + "/" + version + ".json");
+		if(!versionJson.exists())
+		{
+			System.out.println("Version JSON for " + version + " not found, run download mode first");
+			return 4;
+		}
+		VersionJson versionInfo = VersionJson.load(versionJson);
+		
+		List<ExpectedFile> expected = new ArrayList<>();
+		Artifact client = versionInfo.getClient();
+		if(client != null)
+			expected.add(new ExpectedFile(new File(mcpFolder, "jars/versions/" + version + "/" + version + ".jar"),
+				client.getSize(), client.getSha1()));
+		Artifact server = versionInfo.getServer();
+		if(server != null)
+		{
+			File serverJar = new File(mcpFolder, "jars/minecraft_server." + version + ".jar");
+			File bundledJar = new File(mcpFolder, "jars/minecraft_server." + version + "_bundled.jar");
+			if(bundledJar.exists())
+			{
+				// 1.18+, the hash belongs to the bundle and the server jar was extracted from it
+				expected.add(new ExpectedFile(bundledJar, server.getSize(), server.getSha1()));
+				expected.addAll(getExtractedFiles(bundledJar, serverJar));
+			}else
+				expected.add(new ExpectedFile(serverJar, server.getSize(), server.getSha1()));
+		}
+		for(Library library : versionInfo.getLibraries())
+			for(Artifact artifact : new Artifact[]{library.getArtifact(), library.getNatives()})
+				if(artifact != null)
+					expected.add(new ExpectedFile(new File(mcpFolder, "jars/libraries/" + artifact.getPath()),
+						artifact.getSize(), artifact.getSha1()));
+		
+		System.out.println("Verifying " + expected.size() + " files");
+		List<String> missing = new ArrayList<>();
+		List<String> corrupt = new ArrayList<>();
+		boolean extractionBroken = check(expected, missing, corrupt);
+		List<String> extra = findExtraLibraries(expected);
+		
+		missing.forEach(path -> System.out.println("Missing: " + path));
+		corrupt.forEach(path -> System.out.println("Corrupt: " + path));
+		extra.forEach(path -> System.out.println("Extra: " + path));
+		System.out.println(missing.size() + " missing, " + corrupt.size() + " corrupt, " + extra.size() + " extra");
+		if(missing.isEmpty() && corrupt.isEmpty())
+		{
+			System.out.println("Workspace is intact");
+			return 0;
+		}
+		if(repairer == null)
+			return 4;
+		
+		// Download mode only transfers what does not match the version JSON, which is exactly the broken files. The
+		// files extracted from the server bundle are not in it, so the bundle is extracted again for those.
+		System.out.println("Repairing workspace");
+		if(extractionBroken)
+			repairer.forceExtraction();
+		return repairer.run();
+	}
+	
+	// The server jar and libraries extracted from a 1.18+ bundle, checked against the size and CRC the bundle
+	// records for them. If the bundle can not be read, which its own hash reports, the server jar only has to
+	// exist.
+	private List<ExpectedFile> getExtractedFiles(File bundledJar, File serverJar)
+	{
+		List<ExpectedFile> files = new ArrayList<>();
+		try(BundleExtractor bundle = new BundleExtractor(bundledJar))
+		{
+			ZipEntry serverEntry = bundle.getEntry("META-INF/versions/" + version + "/server-" + version + ".jar");
+			if(serverEntry != null)
+				files.add(new ExpectedFile(serverJar, serverEntry.getSize(), serverEntry.getCrc()));
+			else
+				files.add(new ExpectedFile(serverJar, -1, -1));
+			String prefix = "META-INF/libraries/";
+			File serverLibraries = new File(mcpFolder, "jars/serverLibraries");
+			for(String name : bundle.getEntries(prefix))
+			{
+				ZipEntry entry = bundle.getEntry(name);
+				files.add(new ExpectedFile(new File(serverLibraries, name.substring(prefix.length())), entry.getSize(),
+					entry.getCrc()));
+			}
+		}catch(IOException e)
+		{
+			files.clear();
+			files.add(new ExpectedFile(serverJar, -1, -1));
+		}
+		return files;
+	}
+	
+	// Returns true if a file extracted from the server bundle is missing or corrupt
+	private boolean check(List<ExpectedFile> expected, List<String> missing, List<String> corrupt)
+		throws IOException
+	{
+		List<Callable<Boolean>> tasks = new ArrayList<>();
+		// On Windows a mapped file can not be replaced until the mapping is collected, so the files are streamed
+		// when they may be repaired afterwards
+		boolean mapped = repairer == null;
+		for(ExpectedFile file : expected)
+			tasks.add(() -> file.matches(mapped));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try
+		{
+			List<Future<Boolean>> results = executor.invokeAll(tasks);
+			boolean extractionBroken = false;
+			for(int i = 0; i < expected.size(); i++)
+			{
+				ExpectedFile file = expected.get(i);
+				boolean matches = results.get(i).get();
+				if(!file.file.isFile())
+					missing.add(relativize(file.file.toPath()));
+				else if(!matches)
+					corrupt.add(relativize(file.file.toPath()));
+				if(!matches && file.extracted)
+					extractionBroken = true;
+			}
+			return extractionBroken;
+		}catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException("Unexpected error while verifying", e.getCause());
+		}catch(InterruptedException e)
+		{
+			throw new IOException("Verification was interrupted", e);
+		}finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	// Files in jars/libraries that the version JSON does not list, such as leftover part files
+	private List<String> findExtraLibraries(List<ExpectedFile> expected) throws IOException
+	{
+		Path libraries = new File(mcpFolder, "jars/libraries").toPath();
+		if(!Files.isDirectory(libraries))
+			return new ArrayList<>();
+		Set<Path> known = new HashSet<>();
+		for(ExpectedFile file : expected)
+			known.add(file.file.toPath().toAbsolutePath().normalize());
+		try(Stream<Path> files = Files.walk(libraries))
+		{
+			return files.filter(Files::isRegularFile).filter(path -> !known.contains(path.toAbsolutePath().normalize()))
+				.map(this::relativize).sorted().collect(Collectors.toList());
+		}
+	}
+	
+	private String relativize(Path path)
+	{
+		return mcpFolder.toPath().toAbsolutePath().normalize().relativize(path.toAbsolutePath().normalize())
+			.toString().replace(File.separatorChar, '/');
+	}
+	
+	private static class ExpectedFile
+	{
+		private final File file;
+		private final long size;
+		private final String sha1;
+		private final long crc;
+		// Extracted from the server bundle rather than downloaded
+		private final boolean extracted;
+		
+		private ExpectedFile(File file, long size, String sha1)
+		{
+			this.file = file;
+			this.size = size;
+			this.sha1 = sha1;
+			crc = -1;
+			extracted = false;
+		}
+		
+		private ExpectedFile(File file, long size, long crc)
+		{
+			this.file = file;
+			this.size = size;
+			sha1 = null;
+			this.crc = crc;
+			extracted = true;
+		}
+		
+		// Files without a size, hash or CRC only have to exist
+		private boolean matches(boolean mapped) throws IOException
+		{
+			if(!file.isFile())
+				return false;
+			if(size >= 0 && file.length() != size)
+				return false;
+			if(sha1 != null && !sha1.equalsIgnoreCase(mapped ? Checksums.sha1Mapped(file) : Checksums.sha1(file)))
+				return false;
+			return crc < 0 || Checksums.crc32(file) == crc;
+		}
+	}
+}